@@ -0,0 +1,94 @@
+package fi.iki.harrin.library;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Microbenchmark of reading the book list.
+ *
+ * @author $Author: $
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BookListBenchmark
+{
+    /** Number of books in the list */
+    @Param({"100", "1000"})
+    private int m_bookCount;
+
+    /** Content of the list */
+    private String m_bookList;
+    /** List file */
+    private File m_file;
+
+    /**
+     * Creates the list.
+     *
+     * @throws IOException if writing the list file fails
+     */
+    @Setup
+    public void setUp()
+        throws IOException
+    {
+        m_bookList = CheckBenchmark.createBookList(m_bookCount);
+        m_file = File.createTempFile("booklist", ".txt");
+        CheckBenchmark.writeBookList(m_file,
+                                     m_bookCount);
+    }
+
+    /**
+     * Deletes the list file.
+     */
+    @TearDown
+    public void tearDown()
+    {
+        m_file.delete();
+    }
+
+    /**
+     * Reads the list file like the application does.
+     *
+     * @return the books
+     * @throws IOException if reading fails
+     */
+    @Benchmark
+    public BookInfo[] readFile()
+        throws IOException
+    {
+        return BookInfo.getBooks(m_file.getPath());
+    }
+
+    /**
+     * Parses the list from memory, i.e. without file access.
+     *
+     * @param blackhole consumes the books
+     * @throws IOException if parsing fails
+     */
+    @Benchmark
+    public void parse(Blackhole blackhole)
+        throws IOException
+    {
+        BookListReader reader = new BookListReader("benchmark",
+                                                   new StringReader(m_bookList));
+        BookInfo book;
+        while ((book = reader.readBook()) != null)
+        {
+            blackhole.consume(book);
+        }
+        reader.close();
+    }
+}
@@ -0,0 +1,193 @@
+package fi.iki.harrin.library;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * End-to-end benchmark running CheckLibrary against a local stub Arena
+ * server, so that performance can be measured without loading the real
+ * library server. Generates a book list whose titles select available,
+ * checked out, ordered and missing records of the benchmark pages; the
+ * volume after colon keeps the books distinct.
+ *
+ * Options not recognized by the benchmark, e.g. -workers N, are passed
+ * to CheckLibrary. The engine defaults to http, as the stub pages do not
+ * run the Wicket scripts a browser would need.
+ *
+ * @author $Author: $
+ */
+public class CheckBenchmark
+{
+    /** Usage text printed on invalid command line */
+    private static final String USAGE =
+        "Usage: CheckBenchmark [-books N] [-latency ms] [-pages dir]\n"
+        + "                      [CheckLibrary options]";
+
+    /** Default directory of the benchmark pages */
+    private static final String DEFAULT_PAGE_DIRECTORY = "src/bench/arena";
+    /** Title prefixes selecting the record status in the stub pages */
+    private static final String[] TITLE_PREFIXES = {"Teos", "Lainassa", "Tilattu", "Puuttuu"};
+
+    /**
+     * Constructor for CheckBenchmark.
+     */
+    private CheckBenchmark()
+    {
+    }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args command line parameters
+     */
+    public static void main(String[] args)
+    {
+        int bookCount = 200;
+        long latency = 50;
+        File pageDirectory = new File(DEFAULT_PAGE_DIRECTORY);
+        List<String> listCheckArgs = new ArrayList<String>();
+
+        try
+        {
+            for (int i = 0; i < args.length; i++)
+            {
+                if (args[i].equals("-books") && i + 1 < args.length)
+                {
+                    bookCount = Integer.parseInt(args[++i]);
+                }
+                else if (args[i].equals("-latency") && i + 1 < args.length)
+                {
+                    latency = Long.parseLong(args[++i]);
+                }
+                else if (args[i].equals("-pages") && i + 1 < args.length)
+                {
+                    pageDirectory = new File(args[++i]);
+                }
+                else
+                {
+                    listCheckArgs.add(args[i]);
+                }
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            System.out.println(e.getMessage());
+            System.out.println(USAGE);
+            System.exit(1);
+        }
+
+        try
+        {
+            run(pageDirectory,
+                latency,
+                bookCount,
+                listCheckArgs);
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param pageDirectory directory of the stub pages
+     * @param latency       delay of each stub response in milliseconds
+     * @param bookCount     number of generated books
+     * @param listCheckArgs options passed to CheckLibrary
+     * @throws Exception if the benchmark fails
+     */
+    private static void run(File         pageDirectory,
+                            long         latency,
+                            int          bookCount,
+                            List<String> listCheckArgs)
+        throws Exception
+    {
+        File bookList = File.createTempFile("benchmark", ".txt");
+        File journal = new File(bookList.getPath() + ".journal");
+        StubArenaServer server = new StubArenaServer(pageDirectory,
+                                                     0,
+                                                     latency);
+        try
+        {
+            writeBookList(bookList,
+                          bookCount);
+            server.start();
+
+            List<String> listArgs = new ArrayList<String>(Arrays.asList("-engine", "http"));
+            listArgs.addAll(listCheckArgs);
+            listArgs.addAll(Arrays.asList("-url", server.getLibraryUrl(),
+                                          "-journal", journal.getPath(),
+                                          bookList.getPath()));
+            CheckOptions options = CheckOptions.parse(listArgs.toArray(new String[listArgs.size()]));
+
+            long startTime = System.currentTimeMillis();
+            new CheckLibrary(options).check(options.getFilename());
+            long totalTime = Math.max(1, System.currentTimeMillis() - startTime);
+
+            System.out.println("");
+            System.out.println("Benchmark: " + bookCount + " books"
+                               + " workers=" + options.getWorkerCount()
+                               + " engine=" + options.getEngine().name().toLowerCase()
+                               + " latency=" + latency + " ms"
+                               + " time=" + totalTime + " ms"
+                               + " throughput=" + String.format("%.1f", bookCount * 60000.0 / totalTime)
+                               + " books/min");
+        }
+        finally
+        {
+            server.stop();
+            bookList.delete();
+            journal.delete();
+        }
+    }
+
+    /**
+     * Writes a generated book list.
+     *
+     * @param file      output file
+     * @param bookCount number of books
+     * @throws IOException if writing fails
+     */
+    static void writeBookList(File file,
+                              int  bookCount)
+        throws IOException
+    {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file));
+        try
+        {
+            writer.write(createBookList(bookCount));
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
+    /**
+     * Creates a generated book list.
+     *
+     * @param bookCount number of books
+     * @return content of the list
+     */
+    static String createBookList(int bookCount)
+    {
+        StringBuilder list = new StringBuilder("BENCHMARK\n----------\n");
+        for (int i = 0; i < bookCount; i++)
+        {
+            list.append("Kirjailija ").append(i % 50).append('\n')
+                .append(TITLE_PREFIXES[i % TITLE_PREFIXES.length]).append(": osa ").append(i).append('\n')
+                .append("84.2\n")
+                .append('\n');
+        }
+        list.append("----------\n");
+        return list.toString();
+    }
+}
@@ -0,0 +1,90 @@
+package fi.iki.harrin.library;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Microbenchmark of parsing and classifying the branch holdings.
+ *
+ * @author $Author: $
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HoldingsBenchmark
+{
+    /** Branch whose holdings are parsed */
+    private static final String BRANCH = "Tampereen pääkirjasto";
+
+    /** Number of other branches before the parsed one */
+    @Param({"0", "20"})
+    private int m_otherBranchCount;
+
+    /** Markup of the holdings */
+    private String m_html;
+
+    /**
+     * Creates the holdings markup.
+     */
+    @Setup
+    public void setUp()
+    {
+        StringBuilder html = new StringBuilder("<div>");
+        for (int i = 0; i < m_otherBranchCount; i++)
+        {
+            appendBranch(html,
+                         "Sivukirjasto " + i,
+                         "0",
+                         "2");
+        }
+        appendBranch(html,
+                     BRANCH,
+                     "1",
+                     "1");
+        m_html = html.append("</div>").toString();
+    }
+
+    /**
+     * Parses and classifies the holdings.
+     *
+     * @return status of the book
+     */
+    @Benchmark
+    public BookStatus classify()
+    {
+        return HoldingsParser.parse(m_html,
+                                    BRANCH).getStatus();
+    }
+
+    /**
+     * Appends the holdings of a branch like Arena shows them.
+     *
+     * @param html       output markup
+     * @param branch     branch name
+     * @param available  copies available
+     * @param checkedOut copies checked out
+     */
+    private static void appendBranch(StringBuilder html,
+                                     String        branch,
+                                     String        available,
+                                     String        checkedOut)
+    {
+        html.append("<div><div><span>").append(branch).append("</span></div></div>\n")
+            .append("<div class=\"arena-holding-child-hyper-container\"><table><tr>\n")
+            .append("<td class=\"arena-holding-shelf-mark\"><span class=\"arena-field\">Hylly:</span>")
+            .append("<span class=\"arena-value\">84.2 TEO</span></td>\n")
+            .append("<td class=\"arena-holding-nof-available-for-loan\"><span class=\"arena-value\">")
+            .append(available).append("</span></td>\n")
+            .append("<td class=\"arena-holding-nof-checked-out\"><span class=\"arena-value\">")
+            .append(checkedOut).append("</span></td>\n")
+            .append("</tr></table><span>Osasto:</span></div>\n");
+    }
+}
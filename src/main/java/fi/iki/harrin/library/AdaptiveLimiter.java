@@ -0,0 +1,199 @@
+package fi.iki.harrin.library;
+
+/**
+ * Limits the number of lookups in flight and the rate of starting them
+ * by the latency and the errors observed from the library server, so
+ * that the workers run as fast as the server can sustain.
+ *
+ * The limits are adjusted after each window of completed lookups with
+ * additive increase, multiplicative decrease: a window whose average
+ * latency stays below twice the best window average and whose error
+ * rate stays low raises the limits, any other window halves them.
+ * Until the first decrease the in-flight limit is doubled instead of
+ * raised by one. Each decision is printed. Can be shared by several
+ * workers.
+ *
+ * @author $Author: $
+ */
+class AdaptiveLimiter
+{
+    /** Number of completed lookups in one window */
+    private static final int WINDOW_SIZE = 10;
+    /** Window average latency over the best average marking congestion */
+    private static final double LATENCY_FACTOR = 2.0;
+    /** Share of failed lookups marking congestion */
+    private static final double ERROR_LIMIT = 0.1;
+    /** Rate raised in each good window, lookups per minute */
+    private static final double RATE_STEP = 30;
+    /** Lowest rate limit, lookups per minute */
+    private static final double MIN_RATE = 6;
+
+    /** Highest in-flight limit, i.e. the number of workers */
+    private final int m_maxLimit;
+    /** Current in-flight limit */
+    private int m_limit = 1;
+    /** Current rate limit in lookups per minute, 0 if not limited */
+    private double m_rate = 0;
+    /** Doubling the in-flight limit until the first decrease */
+    private boolean m_slowStart = true;
+    /** Number of lookups in flight */
+    private int m_inFlightCount = 0;
+    /** Earliest start time of the next lookup */
+    private long m_nextStartTime = 0;
+    /** Best window average latency seen */
+    private long m_bestLatency = Long.MAX_VALUE;
+    /** Start time of the window */
+    private long m_windowStartTime = System.currentTimeMillis();
+    /** Completed lookups in the window */
+    private int m_windowCount = 0;
+    /** Failed lookups in the window */
+    private int m_windowErrorCount = 0;
+    /** Total latency of the window */
+    private long m_windowLatency = 0;
+
+    /**
+     * Constructor for AdaptiveLimiter.
+     *
+     * @param maxLimit highest in-flight limit
+     */
+    AdaptiveLimiter(int maxLimit)
+    {
+        m_maxLimit = maxLimit;
+    }
+
+    /**
+     * Waits until a new lookup may start.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    synchronized void acquire()
+        throws InterruptedException
+    {
+        while (true)
+        {
+            long now = System.currentTimeMillis();
+            if (m_inFlightCount >= m_limit)
+            {
+                wait();
+            }
+            else if (now < m_nextStartTime)
+            {
+                wait(m_nextStartTime - now);
+            }
+            else
+            {
+                break;
+            }
+        }
+
+        m_inFlightCount++;
+        if (m_rate > 0)
+        {
+            m_nextStartTime = System.currentTimeMillis() + (long) (60000 / m_rate);
+        }
+    }
+
+    /**
+     * Ends a lookup started with acquire().
+     *
+     * @param latency duration of the lookup in milliseconds
+     * @param failed  whether the lookup failed
+     */
+    synchronized void release(long    latency,
+                              boolean failed)
+    {
+        m_inFlightCount--;
+        m_windowCount++;
+        m_windowLatency += latency;
+        if (failed)
+        {
+            m_windowErrorCount++;
+        }
+
+        if (m_windowCount >= WINDOW_SIZE)
+        {
+            adjust();
+        }
+        notifyAll();
+    }
+
+    /**
+     * Gets the value.
+     *
+     * @return the value
+     */
+    synchronized int getLimit()
+    {
+        return m_limit;
+    }
+
+    /**
+     * Gets the value.
+     *
+     * @return the value, 0 if not limited
+     */
+    synchronized double getRate()
+    {
+        return m_rate;
+    }
+
+    /**
+     * Adjusts the limits by the completed window and starts a new one.
+     */
+    private void adjust()
+    {
+        long now = System.currentTimeMillis();
+        long averageLatency = m_windowLatency / m_windowCount;
+        double errorRate = (double) m_windowErrorCount / m_windowCount;
+        double startRate = m_windowCount * 60000.0 / Math.max(1, now - m_windowStartTime);
+        m_bestLatency = Math.min(m_bestLatency, averageLatency);
+
+        int previousLimit = m_limit;
+        double previousRate = m_rate;
+        String reason;
+        if (errorRate > ERROR_LIMIT
+                || averageLatency > m_bestLatency * LATENCY_FACTOR)
+        {
+            reason = errorRate > ERROR_LIMIT ? "errors" : "latency";
+            m_slowStart = false;
+            m_limit = Math.max(1, m_limit / 2);
+            m_rate = Math.max(MIN_RATE, (m_rate > 0 ? Math.min(m_rate, startRate) : startRate) / 2);
+        }
+        else
+        {
+            reason = m_slowStart ? "slow start" : "increase";
+            m_limit = Math.min(m_maxLimit, m_slowStart ? m_limit * 2 : m_limit + 1);
+            // a rate limit the workers stay well below is dropped
+            if (m_rate > 0)
+            {
+                m_rate = startRate < m_rate / 2 ? 0 : m_rate + RATE_STEP;
+            }
+        }
+
+        if (m_limit != previousLimit
+                || m_rate != previousRate)
+        {
+            System.out.println("ADAPTIVE: " + reason
+                               + " in flight " + previousLimit + " -> " + m_limit
+                               + ", rate " + formatRate(previousRate) + " -> " + formatRate(m_rate)
+                               + " (avg " + averageLatency + " ms, best " + m_bestLatency + " ms"
+                               + ", errors " + m_windowErrorCount + "/" + m_windowCount + ")");
+        }
+
+        m_windowStartTime = now;
+        m_windowCount = 0;
+        m_windowErrorCount = 0;
+        m_windowLatency = 0;
+    }
+
+    /**
+     * Formats a rate limit.
+     *
+     * @param rate lookups per minute or 0
+     * @return the text
+     */
+    static String formatRate(double rate)
+    {
+        return rate > 0 ? String.format("%.0f/min", rate) : "unlimited";
+    }
+}
@@ -0,0 +1,153 @@
+package fi.iki.harrin.library;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Page fetcher recording the fetched pages to a page archive or
+ * replaying them from it. The pages are grouped by the entry started
+ * before the fetches, normally one entry per book. When replaying,
+ * nothing is fetched from the network. One fetcher is used by one
+ * worker at a time.
+ *
+ * @author $Author: $
+ */
+class ArchivePageFetcher implements PageFetcher
+{
+    /** The archive */
+    private final PageArchive m_archive;
+    /** Fetcher of the pages when recording, null when replaying */
+    private final PageFetcher m_fetcher;
+    /** Key of the current entry or null */
+    private String m_key = null;
+    /** Pages of the current entry */
+    private List<PageArchive.Exchange> m_listExchanges = new ArrayList<PageArchive.Exchange>();
+    /** Flags of the replayed pages already returned */
+    private boolean[] m_replayed = new boolean[0];
+
+    /**
+     * Constructor for ArchivePageFetcher.
+     *
+     * @param archive the archive
+     * @param fetcher fetcher of the pages to record or null to replay
+     */
+    ArchivePageFetcher(PageArchive archive,
+                       PageFetcher fetcher)
+    {
+        m_archive = archive;
+        m_fetcher = fetcher;
+    }
+
+    /**
+     * Starts the entry of a book or an author search. When replaying,
+     * loads the recorded pages of the entry.
+     *
+     * @param key entry key
+     * @throws IOException if the archive cannot be read
+     */
+    void startEntry(String key)
+        throws IOException
+    {
+        m_key = key;
+        m_listExchanges = new ArrayList<PageArchive.Exchange>();
+        if (m_fetcher == null)
+        {
+            List<PageArchive.Exchange> listRecorded = m_archive.read(key);
+            if (listRecorded != null)
+            {
+                m_listExchanges = listRecorded;
+            }
+        }
+        m_replayed = new boolean[m_listExchanges.size()];
+    }
+
+    /**
+     * Finishes the current entry. When recording, writes the fetched
+     * pages to the archive, also if the query failed.
+     *
+     * @throws IOException if the archive cannot be written
+     */
+    void finishEntry()
+        throws IOException
+    {
+        if (m_fetcher != null
+                && m_key != null)
+        {
+            m_archive.write(m_key,
+                            m_listExchanges);
+        }
+        m_key = null;
+    }
+
+    @Override
+    public String fetch(String url)
+        throws IOException
+    {
+        if (m_fetcher == null)
+        {
+            return replay(url,
+                          false);
+        }
+        String content = m_fetcher.fetch(url);
+        m_listExchanges.add(new PageArchive.Exchange(url,
+                                                     false,
+                                                     content));
+        return content;
+    }
+
+    @Override
+    public String fetchAjax(String url,
+                            String pageUrl)
+        throws IOException
+    {
+        if (m_fetcher == null)
+        {
+            return replay(url,
+                          true);
+        }
+        String content = m_fetcher.fetchAjax(url,
+                                             pageUrl);
+        m_listExchanges.add(new PageArchive.Exchange(url,
+                                                     true,
+                                                     content));
+        return content;
+    }
+
+    /**
+     * Finds a recorded page of the current entry. Pages fetched several
+     * times are returned in recording order, the last one repeatedly.
+     *
+     * @param url  requested url
+     * @param ajax whether the request is a Wicket AJAX request
+     * @return content of the page
+     * @throws IOException if the page is not recorded
+     */
+    private String replay(String  url,
+                          boolean ajax)
+        throws IOException
+    {
+        int lastMatch = -1;
+        for (int i = 0; i < m_listExchanges.size(); i++)
+        {
+            PageArchive.Exchange exchange = m_listExchanges.get(i);
+            if (exchange.isAjax() != ajax
+                    || !exchange.getUrl().equals(url))
+            {
+                continue;
+            }
+            if (!m_replayed[i])
+            {
+                m_replayed[i] = true;
+                return exchange.getContent();
+            }
+            lastMatch = i;
+        }
+
+        if (lastMatch == -1)
+        {
+            throw new IOException("Page not in archive for " + m_key + ": " + url);
+        }
+        return m_listExchanges.get(lastMatch).getContent();
+    }
+}
@@ -0,0 +1,87 @@
+package fi.iki.harrin.library;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Query engine grouping the pages fetched by another engine into page
+ * archive entries, one entry per book or author search.
+ *
+ * @author $Author: $
+ */
+class ArchiveQueryEngine implements QueryEngine
+{
+    /** Prefix of the entry keys of author searches */
+    private static final String AUTHOR_KEY_PREFIX = "author:";
+
+    /** The engine fetching the pages with the archive fetcher */
+    private final QueryEngine m_engine;
+    /** Records or replays the pages */
+    private final ArchivePageFetcher m_fetcher;
+
+    /**
+     * Constructor for ArchiveQueryEngine.
+     *
+     * @param engine  the engine fetching the pages with the fetcher
+     * @param fetcher records or replays the pages
+     */
+    ArchiveQueryEngine(QueryEngine        engine,
+                       ArchivePageFetcher fetcher)
+    {
+        m_engine = engine;
+        m_fetcher = fetcher;
+    }
+
+    @Override
+    public BookStatus query(BookInfo book)
+        throws IOException
+    {
+        m_fetcher.startEntry(book.getKey());
+        try
+        {
+            return m_engine.query(book);
+        }
+        finally
+        {
+            m_fetcher.finishEntry();
+        }
+    }
+
+    @Override
+    public List<ArenaRecord> searchAuthor(String author)
+        throws IOException
+    {
+        m_fetcher.startEntry(AUTHOR_KEY_PREFIX + author.trim().toLowerCase());
+        try
+        {
+            return m_engine.searchAuthor(author);
+        }
+        finally
+        {
+            m_fetcher.finishEntry();
+        }
+    }
+
+    @Override
+    public BookStatus queryRecord(BookInfo    book,
+                                  ArenaRecord record)
+        throws IOException
+    {
+        m_fetcher.startEntry(book.getKey());
+        try
+        {
+            return m_engine.queryRecord(book,
+                                        record);
+        }
+        finally
+        {
+            m_fetcher.finishEntry();
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        m_engine.close();
+    }
+}
@@ -0,0 +1,356 @@
+package fi.iki.harrin.library;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Helpers for reading Arena pages and Wicket AJAX responses without a
+ * browser. Arena markup is generated, so simple patterns are enough.
+ *
+ * @author $Author: $
+ */
+final class ArenaHtml
+{
+    /** Start of a Wicket 6 AJAX behavior registration */
+    private static final String AJAX_CALL = "Wicket.Ajax.ajax(";
+    /** Start of an older Wicket AJAX call in onclick attribute */
+    private static final String AJAX_GET_CALL = "wicketAjaxGet('";
+
+    /** Matches a link, groups are attributes and content */
+    private static final Pattern LINK_PATTERN =
+        Pattern.compile("<a\\b([^>]*)>(.*?)</a>",
+                        Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    /** Matches any tag */
+    private static final Pattern TAG_PATTERN = Pattern.compile("<[^>]*>");
+    /** Matches a character entity */
+    private static final Pattern ENTITY_PATTERN =
+        Pattern.compile("&(#[0-9]+|#[xX][0-9a-fA-F]+|[a-zA-Z]+);");
+    /** Matches the url of an AJAX behavior registration */
+    private static final Pattern AJAX_URL_PATTERN = Pattern.compile("\"u\"\\s*:\\s*\"([^\"]*)\"");
+
+    /** Named entities used in Finnish pages */
+    private static final Map<String, Character> ENTITIES = new HashMap<String, Character>();
+    static
+    {
+        ENTITIES.put("amp", '&');
+        ENTITIES.put("lt", '<');
+        ENTITIES.put("gt", '>');
+        ENTITIES.put("quot", '"');
+        ENTITIES.put("apos", '\'');
+        ENTITIES.put("nbsp", ' ');
+        ENTITIES.put("auml", 'ä');
+        ENTITIES.put("ouml", 'ö');
+        ENTITIES.put("aring", 'å');
+        ENTITIES.put("Auml", 'Ä');
+        ENTITIES.put("Ouml", 'Ö');
+        ENTITIES.put("Aring", 'Å');
+        ENTITIES.put("uuml", 'ü');
+        ENTITIES.put("Uuml", 'Ü');
+        ENTITIES.put("eacute", 'é');
+    }
+
+    /**
+     * Constructor for ArenaHtml.
+     */
+    private ArenaHtml()
+    {
+    }
+
+    /**
+     * Finds the links with the given text.
+     *
+     * @param html the page
+     * @param text visible text of the link
+     * @return links in page order
+     */
+    static List<Link> findLinks(String html,
+                                String text)
+    {
+        List<Link> listLinks = new ArrayList<Link>();
+        Matcher matcher = LINK_PATTERN.matcher(html);
+        while (matcher.find())
+        {
+            if (getText(matcher.group(2)).equals(text))
+            {
+                String attributes = matcher.group(1);
+                listLinks.add(new Link(getAttribute(attributes, "id"),
+                                       getAttribute(attributes, "href"),
+                                       getAttribute(attributes, "onclick")));
+            }
+        }
+        return listLinks;
+    }
+
+    /**
+     * Finds the url of the AJAX behavior attached to a component.
+     *
+     * @param text        page or AJAX response content
+     * @param componentId markup id of the component
+     * @return url or null if not found
+     */
+    static String findAjaxUrl(String text,
+                              String componentId)
+    {
+        if (componentId == null)
+        {
+            return null;
+        }
+
+        int idIndex = text.indexOf("\"c\":\"" + componentId + "\"");
+        if (idIndex == -1)
+        {
+            return null;
+        }
+
+        int callStart = text.lastIndexOf(AJAX_CALL, idIndex);
+        if (callStart == -1)
+        {
+            return null;
+        }
+        int callEnd = text.indexOf(AJAX_CALL, idIndex);
+        if (callEnd == -1)
+        {
+            callEnd = text.length();
+        }
+
+        Matcher matcher = AJAX_URL_PATTERN.matcher(text.substring(callStart, callEnd));
+        if (!matcher.find())
+        {
+            return null;
+        }
+        return decode(matcher.group(1).replace("\\/", "/"));
+    }
+
+    /**
+     * Gets the url of an older style AJAX call from onclick attribute.
+     *
+     * @param onclick onclick attribute value
+     * @return url or null if not found
+     */
+    static String findAjaxGetUrl(String onclick)
+    {
+        if (onclick == null)
+        {
+            return null;
+        }
+
+        int start = onclick.indexOf(AJAX_GET_CALL);
+        if (start == -1)
+        {
+            return null;
+        }
+        start += AJAX_GET_CALL.length();
+        int end = onclick.indexOf('\'', start);
+        if (end == -1)
+        {
+            return null;
+        }
+        return onclick.substring(start, end);
+    }
+
+    /**
+     * Gets the visible text of markup: tags removed, entities decoded and
+     * whitespace collapsed.
+     *
+     * @param html the markup
+     * @return the text
+     */
+    static String getText(String html)
+    {
+        String text = TAG_PATTERN.matcher(html).replaceAll(" ");
+        return decode(text).replaceAll("\\s+", " ").trim();
+    }
+
+    /**
+     * Decodes character entities.
+     *
+     * @param text text containing entities
+     * @return decoded text
+     */
+    static String decode(String text)
+    {
+        return decode(text,
+                      false);
+    }
+
+    /**
+     * Decodes the character entities of letters but keeps the markup
+     * characters escaped, so the result can still be parsed as markup.
+     *
+     * @param html the markup
+     * @return markup with letters decoded
+     */
+    static String decodeLetters(String html)
+    {
+        return decode(html,
+                      true);
+    }
+
+    /**
+     * Resolves a possibly relative url.
+     *
+     * @param baseUrl url of the page containing the url
+     * @param url     the url
+     * @return absolute url
+     * @throws MalformedURLException if the url is invalid
+     */
+    static String resolve(String baseUrl,
+                          String url)
+        throws MalformedURLException
+    {
+        return new URL(new URL(baseUrl), url).toString();
+    }
+
+    /**
+     * Gets the value of an attribute.
+     *
+     * @param attributes attributes of a tag
+     * @param name       attribute name
+     * @return decoded value or null if not found
+     */
+    static String getAttribute(String attributes,
+                               String name)
+    {
+        Matcher matcher = Pattern.compile("\\b" + name + "\\s*=\\s*(\"([^\"]*)\"|'([^']*)')",
+                                          Pattern.CASE_INSENSITIVE).matcher(attributes);
+        if (!matcher.find())
+        {
+            return null;
+        }
+        return decode(matcher.group(2) != null ? matcher.group(2) : matcher.group(3));
+    }
+
+    /**
+     * Decodes character entities.
+     *
+     * @param text       text containing entities
+     * @param keepMarkup true to keep entities of markup characters
+     * @return decoded text
+     */
+    private static String decode(String  text,
+                                 boolean keepMarkup)
+    {
+        if (text.indexOf('&') == -1)
+        {
+            return text;
+        }
+
+        StringBuffer decoded = new StringBuffer();
+        Matcher matcher = ENTITY_PATTERN.matcher(text);
+        while (matcher.find())
+        {
+            String entity = matcher.group(1);
+            Character character = null;
+            try
+            {
+                if (entity.startsWith("#x") || entity.startsWith("#X"))
+                {
+                    character = (char) Integer.parseInt(entity.substring(2), 16);
+                }
+                else if (entity.startsWith("#"))
+                {
+                    character = (char) Integer.parseInt(entity.substring(1));
+                }
+                else
+                {
+                    character = ENTITIES.get(entity);
+                }
+            }
+            catch (NumberFormatException e)
+            {
+                character = null;
+            }
+
+            if (character == null
+                    || (keepMarkup && "<>&\"'".indexOf(character.charValue()) != -1))
+            {
+                matcher.appendReplacement(decoded, Matcher.quoteReplacement(matcher.group()));
+            }
+            else
+            {
+                matcher.appendReplacement(decoded, Matcher.quoteReplacement(character.toString()));
+            }
+        }
+        matcher.appendTail(decoded);
+        return decoded.toString();
+    }
+
+    /**
+     * Link found from a page.
+     */
+    static final class Link
+    {
+        /** Markup id or null */
+        private final String m_id;
+        /** Link target or null */
+        private final String m_href;
+        /** onclick attribute or null */
+        private final String m_onclick;
+
+        /**
+         * Constructor for Link.
+         *
+         * @param id      markup id or null
+         * @param href    link target or null
+         * @param onclick onclick attribute or null
+         */
+        Link(String id,
+             String href,
+             String onclick)
+        {
+            m_id = id;
+            m_href = href;
+            m_onclick = onclick;
+        }
+
+        /**
+         * Gets the value.
+         *
+         * @return the value
+         */
+        String getId()
+        {
+            return m_id;
+        }
+
+        /**
+         * Gets the value.
+         *
+         * @return the value
+         */
+        String getHref()
+        {
+            return m_href;
+        }
+
+        /**
+         * Gets the value.
+         *
+         * @return the value
+         */
+        String getOnclick()
+        {
+            return m_onclick;
+        }
+
+        /**
+         * Checks whether following the link loads a new page instead of
+         * running an AJAX behavior.
+         *
+         * @return true if the link has a real target
+         */
+        boolean isNavigable()
+        {
+            return m_href != null
+                && m_href.length() > 0
+                && !m_href.startsWith("#")
+                && !m_href.startsWith("javascript:");
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package fi.iki.harrin.library;
+
+/**
+ * One record of an Arena search result list.
+ *
+ * @author $Author: $
+ */
+class ArenaRecord
+{
+    /** Title as shown in the result list */
+    private final String m_title;
+    /** Author as shown in the result list or empty */
+    private final String m_author;
+    /** Url of the record page */
+    private final String m_url;
+    /** Url of the "Saatavilla" link or null if the record has none */
+    private final String m_availabilityUrl;
+
+    /**
+     * Constructor for ArenaRecord.
+     *
+     * @param title           title as shown in the result list
+     * @param author          author as shown in the result list or empty
+     * @param url             url of the record page
+     * @param availabilityUrl url of the "Saatavilla" link or null
+     */
+    ArenaRecord(String title,
+                String author,
+                String url,
+                String availabilityUrl)
+    {
+        m_title = title;
+        m_author = author;
+        m_url = url;
+        m_availabilityUrl = availabilityUrl;
+    }
+
+    /**
+     * Gets the value.
+     *
+     * @return the value
+     */
+    String getTitle()
+    {
+        return m_title;
+    }
+
+    /**
+     * Gets the value.
+     *
+     * @return the value
+     */
+    String getAuthor()
+    {
+        return m_author;
+    }
+
+    /**
+     * Gets the value.
+     *
+     * @return the value
+     */
+    String getUrl()
+    {
+        return m_url;
+    }
+
+    /**
+     * Gets the url showing the holdings: the "Saatavilla" link if the
+     * record has one, otherwise the record page.
+     *
+     * @return the url
+     */
+    String getHoldingsUrl()
+    {
+        return m_availabilityUrl != null ? m_availabilityUrl : m_url;
+    }
+
+    /**
+     * Checks whether the result list shows the record available somewhere.
+     *
+     * @return true if the record has a "Saatavilla" link
+     */
+    boolean hasAvailability()
+    {
+        return m_availabilityUrl != null;
+    }
+
+    /**
+     * Gets the string representation.
+     *
+     * @return object as string
+     */
+    @Override
+    public String toString()
+    {
+        return m_author + ": " + m_title + " <" + m_url + ">";
+    }
+}
@@ -0,0 +1,127 @@
+package fi.iki.harrin.library;
+
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URLEncoder;
+
+/**
+ * Builds the url of an Arena search result page, so that the result can be
+ * loaded without filling the search form.
+ *
+ * @author $Author: $
+ */
+final class ArenaSearchUrl
+{
+    /** Search result page relative to the start page */
+    private static final String SEARCH_PAGE =
+        "search?p_p_id=searchResult_WAR_arenaportlets"
+        + "&p_p_lifecycle=1&p_p_state=normal&p_p_mode=view"
+        + "&p_r_p_arena_urn%3Aarena_search_type=solr"
+        + "&p_r_p_arena_urn%3Aarena_sort_advice=field%3DRelevance%26direction%3DDescending"
+        + "&p_r_p_arena_urn%3Aarena_search_query=";
+
+    /**
+     * Constructor for ArenaSearchUrl.
+     */
+    private ArenaSearchUrl()
+    {
+    }
+
+    /**
+     * Builds the url searching books by title and author like the
+     * advanced search form does. Neither restricts the organisation, it
+     * is checked from the holdings instead.
+     *
+     * @param libraryUrl url of the start page
+     * @param book       the book
+     * @return search result page url
+     * @throws MalformedURLException if the start page url is invalid
+     */
+    static String create(String   libraryUrl,
+                         BookInfo book)
+        throws MalformedURLException
+    {
+        return create(libraryUrl,
+                      book.getTitle(),
+                      book.getAuthor());
+    }
+
+    /**
+     * Builds the url searching all books by an author.
+     *
+     * @param libraryUrl url of the start page
+     * @param author     the author
+     * @return search result page url
+     * @throws MalformedURLException if the start page url is invalid
+     */
+    static String createAuthorSearch(String libraryUrl,
+                                     String author)
+        throws MalformedURLException
+    {
+        return create(libraryUrl,
+                      null,
+                      author);
+    }
+
+    /**
+     * Builds the search url of a title and an author search or an author
+     * search.
+     *
+     * @param libraryUrl url of the start page
+     * @param title      searched title or null
+     * @param author     searched author
+     * @return search result page url
+     * @throws MalformedURLException if the start page url is invalid
+     */
+    static String create(String libraryUrl,
+                         String title,
+                         String author)
+        throws MalformedURLException
+    {
+        StringBuilder query = new StringBuilder("mediaClass_index:book");
+        if (title != null)
+        {
+            appendTerms(query,
+                        "title_index",
+                        title);
+        }
+        if (author.length() > 1)
+        {
+            appendTerms(query,
+                        "author_index",
+                        author);
+        }
+
+        try
+        {
+            return ArenaHtml.resolve(libraryUrl,
+                                     SEARCH_PAGE + URLEncoder.encode(query.toString(), "UTF-8"));
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Appends the words of the value as a field query. Query syntax
+     * characters are dropped.
+     *
+     * @param query output query
+     * @param field index field name
+     * @param value searched value
+     */
+    private static void appendTerms(StringBuilder query,
+                                    String        field,
+                                    String        value)
+    {
+        String terms = value.replaceAll("[^\\p{L}\\p{N}]+", " ").trim();
+        if (terms.length() == 0)
+        {
+            return;
+        }
+
+        query.append(" AND ").append(field).append(":(")
+             .append(terms.replace(" ", " AND ")).append(')');
+    }
+}
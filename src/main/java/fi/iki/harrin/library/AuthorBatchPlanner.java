@@ -0,0 +1,68 @@
+package fi.iki.harrin.library;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups the books by author, so that the books of an author can be
+ * found with one author search and matched against the result list
+ * locally instead of searching each title separately.
+ *
+ * @author $Author: $
+ */
+class AuthorBatchPlanner
+{
+    /** Minimum number of books by an author worth an author search */
+    private static final int MIN_BATCH_SIZE = 2;
+
+    /** Books by normalized author in first seen order */
+    private final Map<String, List<BookInfo>> m_books = new LinkedHashMap<String, List<BookInfo>>();
+
+    /**
+     * Adds a book to the plan.
+     *
+     * @param book the book
+     */
+    void add(BookInfo book)
+    {
+        String author = book.getAuthor().toLowerCase().replaceAll("\\s+", " ").trim();
+        List<BookInfo> listBooks = m_books.get(author);
+        if (listBooks == null)
+        {
+            listBooks = new ArrayList<BookInfo>();
+            m_books.put(author, listBooks);
+        }
+        listBooks.add(book);
+    }
+
+    /**
+     * Gets the planned tasks: a batch for each author with several books
+     * and a single book task for the rest. Books without a searchable
+     * author are always searched by title.
+     *
+     * @return the tasks
+     */
+    List<QueryTask> getTasks()
+    {
+        List<QueryTask> listTasks = new ArrayList<QueryTask>();
+        for (List<BookInfo> listBooks : m_books.values())
+        {
+            String author = listBooks.get(0).getAuthor();
+            if (listBooks.size() >= MIN_BATCH_SIZE
+                    && author.length() > 1)
+            {
+                listTasks.add(new QueryTask(author,
+                                            listBooks));
+                continue;
+            }
+
+            for (BookInfo book : listBooks)
+            {
+                listTasks.add(new QueryTask(book));
+            }
+        }
+        return listTasks;
+    }
+}
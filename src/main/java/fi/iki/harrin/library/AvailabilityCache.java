@@ -0,0 +1,264 @@
+package fi.iki.harrin.library;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * On-disk cache of earlier check results, so that books whose status
+ * cannot have changed yet are not queried again. Each status has its own
+ * time to live: statuses that change often expire quickly. The least
+ * recently used entries are dropped when the cache is full.
+ *
+ * The file has one tab separated line per book: key, status, real
+ * location, check time and query duration in milliseconds. Lines are in
+ * least recently used first order.
+ *
+ * @author $Author: $
+ */
+class AvailabilityCache
+{
+    /** Maximum number of cached books */
+    private static final int MAX_ENTRIES = 10000;
+    /** Minutes in milliseconds */
+    private static final long MINUTE = 60 * 1000L;
+
+    /** Time to live of each status in milliseconds */
+    private static final Map<BookStatus, Long> TIME_TO_LIVE =
+        new EnumMap<BookStatus, Long>(BookStatus.class);
+    static
+    {
+        TIME_TO_LIVE.put(BookStatus.AVAILABLE, 60 * MINUTE);
+        TIME_TO_LIVE.put(BookStatus.NOT_AVAILABLE, 30 * MINUTE);
+        TIME_TO_LIVE.put(BookStatus.ORDERED, 24 * 60 * MINUTE);
+        TIME_TO_LIVE.put(BookStatus.NOT_FOUND, 7 * 24 * 60 * MINUTE);
+    }
+
+    /** Cache file */
+    private final File m_file;
+    /** Entries by book key in access order */
+    private final Map<String, CachedResult> m_entries =
+        new LinkedHashMap<String, CachedResult>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+                return size() > MAX_ENTRIES;
+            }
+        };
+    /** Number of books found from the cache */
+    private int m_hitCount = 0;
+    /** Number of books not found from the cache */
+    private int m_missCount = 0;
+    /** Query time of the books found from the cache */
+    private long m_savedTime = 0;
+
+    /**
+     * Constructor for AvailabilityCache. Reads the cache file if it exists.
+     *
+     * @param file cache file
+     * @throws IOException if reading fails
+     */
+    AvailabilityCache(File file)
+        throws IOException
+    {
+        m_file = file;
+        if (file.exists())
+        {
+            read();
+        }
+    }
+
+    /**
+     * Gets the cached status of the book and sets the cached real location.
+     *
+     * @param book the book
+     * @return status or null if not cached or expired
+     */
+    synchronized BookStatus lookup(BookInfo book)
+    {
+        CachedResult entry = m_entries.get(book.getKey());
+        if (entry != null
+                && System.currentTimeMillis() - entry.m_checkTime > TIME_TO_LIVE.get(entry.m_status))
+        {
+            m_entries.remove(book.getKey());
+            entry = null;
+        }
+
+        if (entry == null)
+        {
+            m_missCount++;
+            return null;
+        }
+
+        m_hitCount++;
+        m_savedTime += entry.m_queryTime;
+        book.setRealLocation(entry.m_realLocation);
+        return entry.m_status;
+    }
+
+    /**
+     * Stores a check result.
+     *
+     * @param book      the book
+     * @param status    result of the check
+     * @param queryTime duration of the query in milliseconds
+     */
+    synchronized void store(BookInfo   book,
+                            BookStatus status,
+                            long       queryTime)
+    {
+        m_entries.put(book.getKey(),
+                      new CachedResult(status,
+                                book.getRealLocation(),
+                                System.currentTimeMillis(),
+                                queryTime));
+    }
+
+    /**
+     * Writes the cache file.
+     *
+     * @throws IOException if writing fails
+     */
+    synchronized void save()
+        throws IOException
+    {
+        File tempFile = new File(m_file.getPath() + ".tmp");
+        BufferedWriter writer = null;
+        try
+        {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), "UTF-8"));
+            for (Map.Entry<String, CachedResult> mapEntry : m_entries.entrySet())
+            {
+                CachedResult entry = mapEntry.getValue();
+                writer.write(mapEntry.getKey() + "\t"
+                             + entry.m_status.name() + "\t"
+                             + entry.m_realLocation.replace('\t', ' ') + "\t"
+                             + entry.m_checkTime + "\t"
+                             + entry.m_queryTime);
+                writer.newLine();
+            }
+        }
+        finally
+        {
+            if (writer != null)
+            {
+                writer.close();
+            }
+        }
+
+        if (!tempFile.renameTo(m_file))
+        {
+            m_file.delete();
+            if (!tempFile.renameTo(m_file))
+            {
+                throw new IOException("Cannot replace " + m_file);
+            }
+        }
+    }
+
+    /**
+     * Prints the hit ratio and the time saved.
+     */
+    synchronized void printStatistics()
+    {
+        int lookupCount = m_hitCount + m_missCount;
+        System.out.println("");
+        System.out.println("Cache: hits=" + m_hitCount + " misses=" + m_missCount
+                           + " hit ratio=" + (lookupCount > 0 ? 100 * m_hitCount / lookupCount : 0) + " %"
+                           + " time saved=" + (m_savedTime / 1000) + " s");
+    }
+
+    /**
+     * Reads the cache file.
+     *
+     * @throws IOException if reading fails
+     */
+    private void read()
+        throws IOException
+    {
+        BufferedReader reader = null;
+        try
+        {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(m_file), "UTF-8"));
+
+            String inputLine;
+            while ((inputLine = reader.readLine()) != null)
+            {
+                String[] fields = inputLine.split("\t", -1);
+                if (fields.length != 5)
+                {
+                    continue;
+                }
+
+                try
+                {
+                    BookStatus status = BookStatus.valueOf(fields[1]);
+                    // a failed check is not cached
+                    if (!TIME_TO_LIVE.containsKey(status))
+                    {
+                        continue;
+                    }
+                    m_entries.put(fields[0],
+                                  new CachedResult(status,
+                                            fields[2],
+                                            Long.parseLong(fields[3]),
+                                            Long.parseLong(fields[4])));
+                }
+                catch (IllegalArgumentException e)
+                {
+                    // skip lines written by another version
+                }
+            }
+        }
+        finally
+        {
+            if (reader != null)
+            {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Cached result of one book.
+     */
+    private static final class CachedResult
+    {
+        /** Status of the book */
+        private final BookStatus m_status;
+        /** Real location of the book */
+        private final String m_realLocation;
+        /** Time of the check */
+        private final long m_checkTime;
+        /** Duration of the query in milliseconds */
+        private final long m_queryTime;
+
+        /**
+         * Constructor for CachedResult.
+         *
+         * @param status       status of the book
+         * @param realLocation real location of the book
+         * @param checkTime    time of the check
+         * @param queryTime    duration of the query in milliseconds
+         */
+        CachedResult(BookStatus status,
+                     String     realLocation,
+                     long       checkTime,
+                     long       queryTime)
+        {
+            m_status = status;
+            m_realLocation = realLocation;
+            m_checkTime = checkTime;
+            m_queryTime = queryTime;
+        }
+    }
+}
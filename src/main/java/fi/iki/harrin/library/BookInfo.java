@@ -1,10 +1,11 @@
 package fi.iki.harrin.library;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Contains information of one book to be searched.
@@ -13,6 +14,10 @@ import java.util.List;
  */
 class BookInfo
 {
+    /** Index of the book in the book list */
+    private int m_index;
+    /** Book list section containing the book */
+    private String m_section;
     /** Author name */
     private String m_author;
     /** Title of the book */
@@ -21,6 +26,10 @@ class BookInfo
     private String m_shelfNumber;
     /** Where the book is really located according to search */
     private String m_realLocation = "";
+    /** Holdings of the branches of interest, null values if not held */
+    private Map<String, Holdings> m_mapBranchHoldings = Collections.emptyMap();
+    /** Url of the record page found by search or null */
+    private String m_recordUrl = null;
     /** web application shows books available even if they are reserved */
     private boolean m_isQueued = false;
     /** some books are in warehouse, but found book might still be on shelf */
@@ -33,14 +42,20 @@ class BookInfo
     /**
      * Constructor for BookInfo.
      *
+     * @param index       Index of the book in the book list
+     * @param section     Book list section containing the book
      * @param author      Author name
      * @param title       Title of the book
      * @param shelfNumber where the book is located
      */
-    private BookInfo(String author,
-                     String title,
-                     String shelfNumber)
+    BookInfo(int    index,
+             String section,
+             String author,
+             String title,
+             String shelfNumber)
     {
+        m_index = index;
+        m_section = section;
         m_author = author;
         m_title = title;
         m_shelfNumber = shelfNumber;
@@ -73,6 +88,26 @@ class BookInfo
         return aBooks;
     }
 
+    /**
+     * Gets the index of the book in the book list.
+     *
+     * @return the value
+     */
+    int getIndex()
+    {
+        return m_index;
+    }
+
+    /**
+     * Gets the book list section containing the book.
+     *
+     * @return the value
+     */
+    String getSection()
+    {
+        return m_section;
+    }
+
     /**
      * Gets the value.
      *
@@ -103,6 +138,81 @@ class BookInfo
         m_realLocation = value;
     }
 
+    /**
+     * Gets the real location number according to search.
+     *
+     * @return the value
+     */
+    String getRealLocation()
+    {
+        return m_realLocation;
+    }
+
+    /**
+     * Sets the holdings of the branches of interest according to search.
+     *
+     * @param mapBranchHoldings holdings by branch, null values if the
+     *                          branch does not hold the book
+     */
+    void setBranchHoldings(Map<String, Holdings> mapBranchHoldings)
+    {
+        m_mapBranchHoldings = new LinkedHashMap<String, Holdings>(mapBranchHoldings);
+    }
+
+    /**
+     * Sets the url of the record page according to search.
+     *
+     * @param value the value or null if the record has no own url
+     */
+    void setRecordUrl(String value)
+    {
+        m_recordUrl = value;
+    }
+
+    /**
+     * Gets the url of the record page according to search.
+     *
+     * @return the value or null
+     */
+    String getRecordUrl()
+    {
+        return m_recordUrl;
+    }
+
+    /**
+     * Copies the search results of another copy of the same book.
+     *
+     * @param book the searched book
+     */
+    void setSearchResult(BookInfo book)
+    {
+        m_realLocation = book.m_realLocation;
+        m_mapBranchHoldings = book.m_mapBranchHoldings;
+        m_recordUrl = book.m_recordUrl;
+    }
+
+    /**
+     * Gets the holdings of a branch according to search.
+     *
+     * @param branch branch name
+     * @return holdings or null if the branch does not hold the book or
+     *         the book was not searched in this run
+     */
+    Holdings getBranchHoldings(String branch)
+    {
+        return m_mapBranchHoldings.get(branch);
+    }
+
+    /**
+     * Tells whether the branch holdings were read in this run.
+     *
+     * @return true if read
+     */
+    boolean hasBranchHoldings()
+    {
+        return !m_mapBranchHoldings.isEmpty();
+    }
+
     /**
      * Gets the value.
      *
@@ -124,6 +234,20 @@ class BookInfo
         return m_colonTitlePart;
     }
 
+    /**
+     * Gets the key identifying the book between runs: author, title
+     * and the title part after colon in lower case with whitespace
+     * normalized.
+     *
+     * @return the key
+     */
+    String getKey()
+    {
+        String key = m_author + "|" + m_title +
+            (m_colonTitlePart != null ? ":" + m_colonTitlePart : "");
+        return key.toLowerCase().replaceAll("\\s+", " ").replaceAll(" ?([|:]) ?", "$1").trim();
+    }
+
     /**
      * Gets the isQueued.
      *
@@ -149,7 +273,9 @@ class BookInfo
      */
     BookInfo getCopy()
     {
-        BookInfo copy = new BookInfo(m_author,
+        BookInfo copy = new BookInfo(m_index,
+                                     m_section,
+                                     m_author,
                                      m_title,
                                      m_shelfNumber);
         copy.m_realLocation = m_realLocation;
@@ -186,43 +312,15 @@ class BookInfo
                                  List<BookInfo> listBooks)
         throws IOException
     {
-        BufferedReader reader = null;
+        BookListReader reader = null;
         try
         {
-            reader = new BufferedReader(new FileReader(filename));
+            reader = new BookListReader(filename);
 
-            String inputLine = reader.readLine(); // HERVANTA
-            reader.readLine(); // ---------
-            while ((inputLine = reader.readLine()) != null)
+            BookInfo book;
+            while ((book = reader.readBook()) != null)
             {
-                if (inputLine.length() == 0)
-                {
-                    continue;
-                }
-
-                if (inputLine.startsWith("----------"))
-                {
-                    break;
-                }
-
-                String author = inputLine;
-                String title = reader.readLine();
-                String number = reader.readLine();
-                if (number != null &&
-                    number.equalsIgnoreCase("Hankinnassa"))
-                {
-                    number = reader.readLine();
-                }
-
-                reader.readLine(); // empty line or 'Hankinnassa'
-
-                if (author.length() > 0 &&
-                    title != null && title.length() > 0)
-                {
-                    listBooks.add(new BookInfo(author,
-                                               title,
-                                               number));
-                }
+                listBooks.add(book);
             }
         }
         finally
@@ -238,4 +336,13 @@ class BookInfo
         m_possiblyInStore = inStore;
     }
 
+    /**
+     * Gets the possiblyInStore.
+     *
+     * @return Returns the possiblyInStore.
+     */
+    boolean isPossiblyInStore() {
+        return m_possiblyInStore;
+    }
+
 }
@@ -0,0 +1,42 @@
+package fi.iki.harrin.library;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a record of the book list file is malformed. The reader
+ * can still be used to read the following records.
+ *
+ * @author $Author: $
+ */
+class BookListException extends IOException
+{
+    private static final long serialVersionUID = 1L;
+
+    /** Line number of the malformed record */
+    private final int m_lineNumber;
+
+    /**
+     * Constructor for BookListException.
+     *
+     * @param filename   book list filename
+     * @param lineNumber line number of the malformed record
+     * @param message    description of the error
+     */
+    BookListException(String filename,
+                      int    lineNumber,
+                      String message)
+    {
+        super(filename + ":" + lineNumber + ": " + message);
+        m_lineNumber = lineNumber;
+    }
+
+    /**
+     * Gets the value.
+     *
+     * @return the value
+     */
+    int getLineNumber()
+    {
+        return m_lineNumber;
+    }
+}
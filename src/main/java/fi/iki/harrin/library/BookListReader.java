@@ -0,0 +1,187 @@
+package fi.iki.harrin.library;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.LineNumberReader;
+import java.io.Reader;
+
+/**
+ * Reads the book list file one book at a time, so that checking can
+ * start while the rest of the file is still being read.
+ *
+ * The file consists of sections. A section starts with a name line,
+ * e.g. the branch name, followed by a "----------" line, and ends with
+ * a "----------" line. Each book in a section has an author line, a
+ * title line, an optional "Hankinnassa" line, a shelf number line and
+ * an empty line.
+ *
+ * @author $Author: $
+ */
+class BookListReader
+{
+    /** Start of the section separator line */
+    private static final String SEPARATOR = "----------";
+
+    /** Book list filename for error messages */
+    private final String m_filename;
+    /** The reader */
+    private final LineNumberReader m_reader;
+    /** Name of the current section or null if between sections */
+    private String m_section = null;
+    /** Number of books read */
+    private int m_bookCount = 0;
+
+    /**
+     * Constructor for BookListReader.
+     *
+     * @param filename book list filename
+     * @throws IOException if opening the file fails
+     */
+    BookListReader(String filename)
+        throws IOException
+    {
+        this(filename,
+             new InputStreamReader(new FileInputStream(filename)));
+    }
+
+    /**
+     * Constructor for BookListReader.
+     *
+     * @param filename book list name for error messages
+     * @param reader   reader of the book list content
+     */
+    BookListReader(String filename,
+                   Reader reader)
+    {
+        m_filename = filename;
+        m_reader = new LineNumberReader(reader);
+    }
+
+    /**
+     * Reads the next book. A malformed record is reported with an
+     * exception, after which reading can continue from the next record.
+     *
+     * @return the book or null at the end of the file
+     * @throws BookListException if the record is malformed
+     * @throws IOException if reading fails
+     */
+    BookInfo readBook()
+        throws IOException
+    {
+        String inputLine;
+        while ((inputLine = m_reader.readLine()) != null)
+        {
+            if (inputLine.length() == 0)
+            {
+                continue;
+            }
+
+            if (inputLine.startsWith(SEPARATOR))
+            {
+                m_section = null;
+                continue;
+            }
+
+            if (m_section == null)
+            {
+                startSection(inputLine);
+                continue;
+            }
+
+            return readRecord(inputLine);
+        }
+        return null;
+    }
+
+    /**
+     * Gets the number of books read.
+     *
+     * @return the value
+     */
+    int getBookCount()
+    {
+        return m_bookCount;
+    }
+
+    /**
+     * Closes the file.
+     *
+     * @throws IOException if closing fails
+     */
+    void close()
+        throws IOException
+    {
+        m_reader.close();
+    }
+
+    /**
+     * Starts a new section.
+     *
+     * @param name section name line
+     * @throws IOException if reading fails or the separator is missing
+     */
+    private void startSection(String name)
+        throws IOException
+    {
+        int lineNumber = m_reader.getLineNumber();
+        String separator = m_reader.readLine();
+        if (separator == null)
+        {
+            return;
+        }
+        if (!separator.startsWith(SEPARATOR))
+        {
+            throw new BookListException(m_filename,
+                                        lineNumber,
+                                        "Missing " + SEPARATOR + " after section name '" + name + "'");
+        }
+        m_section = name;
+    }
+
+    /**
+     * Reads the rest of a book record.
+     *
+     * @param author author line
+     * @return the book
+     * @throws IOException if reading fails or the record is malformed
+     */
+    private BookInfo readRecord(String author)
+        throws IOException
+    {
+        int lineNumber = m_reader.getLineNumber();
+        String title = m_reader.readLine();
+        if (title == null || title.length() == 0)
+        {
+            throw new BookListException(m_filename,
+                                        lineNumber,
+                                        "Missing title for author '" + author + "'");
+        }
+        if (title.startsWith(SEPARATOR))
+        {
+            m_section = null;
+            throw new BookListException(m_filename,
+                                        lineNumber,
+                                        "Missing title for author '" + author + "'");
+        }
+
+        String number = m_reader.readLine();
+        if (number != null &&
+            number.equalsIgnoreCase("Hankinnassa"))
+        {
+            number = m_reader.readLine();
+        }
+
+        String endLine = m_reader.readLine(); // empty line or 'Hankinnassa'
+        if (endLine != null && endLine.startsWith(SEPARATOR))
+        {
+            m_section = null;
+        }
+
+        return new BookInfo(m_bookCount++,
+                            m_section,
+                            author,
+                            title,
+                            number);
+    }
+}
@@ -0,0 +1,43 @@
+package fi.iki.harrin.library;
+
+/**
+ * Classification of one book after searching the library database.
+ *
+ * @author $Author: $
+ */
+enum BookStatus
+{
+    /** Book is on the shelf */
+    AVAILABLE("AVAILABLE"),
+    /** All copies are checked out */
+    NOT_AVAILABLE("NOT AVAILABLE"),
+    /** Book is being acquired */
+    ORDERED("ORDERED"),
+    /** Book was not found */
+    NOT_FOUND("NOT FOUND"),
+    /** Checking failed, also after retries */
+    FAILED("FAILED");
+
+    /** Label used in the output */
+    private final String m_label;
+
+    /**
+     * Constructor for BookStatus.
+     *
+     * @param label label used in the output
+     */
+    private BookStatus(String label)
+    {
+        m_label = label;
+    }
+
+    /**
+     * Gets the label used in the output.
+     *
+     * @return the label
+     */
+    String getLabel()
+    {
+        return m_label;
+    }
+}
@@ -0,0 +1,490 @@
+package fi.iki.harrin.library;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local mirror of the catalog records of the authors on the book lists,
+ * so that the record of a book is resolved locally and only its holdings
+ * are fetched from the library. The records of an author are read with
+ * one author search and refreshed when older than a week; authors are
+ * refreshed one at a time as their books are checked.
+ *
+ * The records are indexed in memory by their normalized title and author
+ * words. The records sharing the most words with a book are scored with
+ * RecordMatcher. Words common to many records, e.g. "osa", are not used
+ * to select the records unless the book has no other words.
+ *
+ * The file is gzip compressed text with a block per author: a line
+ * "A", author key and refresh time followed by a line "R", title,
+ * author and url of the holdings for each record, fields separated by
+ * tabs. Can be shared by several workers.
+ *
+ * @author $Author: $
+ */
+class CatalogMirror
+{
+    /** Age after which the records of an author are refreshed */
+    private static final long MAX_AGE = 7 * 24 * 60 * 60 * 1000L;
+    /** Prefix of the index keys of title words */
+    private static final String TITLE_PREFIX = "t:";
+    /** Prefix of the index keys of author words */
+    private static final String AUTHOR_PREFIX = "a:";
+    /** Number of records above which a word is too common to select records */
+    private static final int COMMON_WORD_LIMIT = 200;
+
+    /** Mirror file */
+    private final File m_file;
+    /** Records by id, null if replaced by a refresh */
+    private final List<ArenaRecord> m_listRecords = new ArrayList<ArenaRecord>();
+    /** Ids of the records by index key */
+    private final Map<String, List<Integer>> m_index = new HashMap<String, List<Integer>>();
+    /** Mirrored authors by author key in first mirrored order */
+    private final Map<String, MirroredAuthor> m_authors = new LinkedHashMap<String, MirroredAuthor>();
+    /** Keys of the authors being refreshed */
+    private final Set<String> m_setRefreshingAuthors = new HashSet<String>();
+    /** Number of records replaced by a refresh */
+    private int m_removedCount = 0;
+    /** Number of authors refreshed */
+    private int m_refreshCount = 0;
+    /** Number of books resolved locally */
+    private int m_resolvedCount = 0;
+    /** Number of books not found in the mirror */
+    private int m_missCount = 0;
+    /** Total time of the lookups in nanoseconds */
+    private long m_lookupTime = 0;
+
+    /**
+     * Constructor for CatalogMirror. Reads the mirror file if it exists.
+     *
+     * @param file mirror file
+     * @throws IOException if reading fails
+     */
+    CatalogMirror(File file)
+        throws IOException
+    {
+        m_file = file;
+        if (file.exists())
+        {
+            read();
+        }
+    }
+
+    /**
+     * Claims the refresh of the records of an author if they are missing
+     * or old. If another worker is refreshing the author, waits until it
+     * has finished.
+     *
+     * @param author the author
+     * @return true if the caller must search the author and call
+     *         store() or abandon()
+     * @throws InterruptedException if interrupted while waiting
+     */
+    synchronized boolean claimRefresh(String author)
+        throws InterruptedException
+    {
+        String key = getAuthorKey(author);
+        if (key.length() <= 1)
+        {
+            return false;
+        }
+
+        while (m_setRefreshingAuthors.contains(key))
+        {
+            wait();
+        }
+
+        MirroredAuthor mirrored = m_authors.get(key);
+        if (mirrored != null
+                && System.currentTimeMillis() - mirrored.m_refreshTime < MAX_AGE)
+        {
+            return false;
+        }
+        m_setRefreshingAuthors.add(key);
+        return true;
+    }
+
+    /**
+     * Replaces the records of an author with the result of an author
+     * search.
+     *
+     * @param author      the author
+     * @param listRecords records of the author search
+     */
+    synchronized void store(String            author,
+                            List<ArenaRecord> listRecords)
+    {
+        String key = getAuthorKey(author);
+        m_setRefreshingAuthors.remove(key);
+        m_refreshCount++;
+
+        MirroredAuthor mirrored = m_authors.get(key);
+        if (mirrored != null)
+        {
+            for (int id : mirrored.m_listIds)
+            {
+                removeRecord(id);
+            }
+        }
+        mirrored = new MirroredAuthor(System.currentTimeMillis());
+        m_authors.put(key, mirrored);
+
+        // the holdings are read from the "Saatavilla" link if there is one
+        Set<String> setUrls = new HashSet<String>();
+        for (ArenaRecord record : listRecords)
+        {
+            if (setUrls.add(record.getHoldingsUrl()))
+            {
+                addRecord(mirrored,
+                          new ArenaRecord(record.getTitle(),
+                                          record.getAuthor(),
+                                          record.getHoldingsUrl(),
+                                          null));
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * Gives up a claimed refresh. The old records of the author, if any,
+     * stay in use.
+     *
+     * @param author the author
+     */
+    synchronized void abandon(String author)
+    {
+        m_setRefreshingAuthors.remove(getAuthorKey(author));
+        notifyAll();
+    }
+
+    /**
+     * Marks the records of the author of a book old, so that they are
+     * refreshed on the next check of the author.
+     *
+     * @param book book whose mirrored record no longer shows the holdings
+     */
+    synchronized void invalidate(BookInfo book)
+    {
+        MirroredAuthor mirrored = m_authors.get(getAuthorKey(book.getAuthor()));
+        if (mirrored != null)
+        {
+            mirrored.m_refreshTime = 0;
+        }
+        m_resolvedCount--;
+        m_missCount++;
+    }
+
+    /**
+     * Finds the record of a book.
+     *
+     * @param book the book
+     * @return the record or null if no mirrored record matches
+     */
+    synchronized ArenaRecord lookup(BookInfo book)
+    {
+        long startTime = System.nanoTime();
+
+        List<List<Integer>> listPostings = new ArrayList<List<Integer>>();
+        List<Integer> listRarestIds = null;
+        for (String key : getIndexKeys(book.getTitle(), book.getAuthor()))
+        {
+            List<Integer> listIds = m_index.get(key);
+            if (listIds == null)
+            {
+                continue;
+            }
+            if (listIds.size() <= COMMON_WORD_LIMIT)
+            {
+                listPostings.add(listIds);
+            }
+            if (listRarestIds == null
+                    || listIds.size() < listRarestIds.size())
+            {
+                listRarestIds = listIds;
+            }
+        }
+        if (listPostings.isEmpty()
+                && listRarestIds != null)
+        {
+            listPostings.add(listRarestIds);
+        }
+
+        // candidates in id order, i.e. in the order of the author search
+        // result, so that ties are resolved the same way in every run
+        Map<Integer, Integer> mapSharedCounts = new TreeMap<Integer, Integer>();
+        int maxCount = 0;
+        for (List<Integer> listIds : listPostings)
+        {
+            for (int id : listIds)
+            {
+                Integer count = mapSharedCounts.get(id);
+                count = count != null ? count + 1 : 1;
+                mapSharedCounts.put(id, count);
+                maxCount = Math.max(maxCount, count);
+            }
+        }
+
+        List<ArenaRecord> listCandidates = new ArrayList<ArenaRecord>();
+        for (Map.Entry<Integer, Integer> entry : mapSharedCounts.entrySet())
+        {
+            if (entry.getValue() == maxCount)
+            {
+                listCandidates.add(m_listRecords.get(entry.getKey()));
+            }
+        }
+        ArenaRecord record = RecordMatcher.findBest(book,
+                                                    listCandidates);
+
+        m_lookupTime += System.nanoTime() - startTime;
+        if (record != null)
+        {
+            m_resolvedCount++;
+        }
+        else
+        {
+            m_missCount++;
+        }
+        return record;
+    }
+
+    /**
+     * Writes the mirror file.
+     *
+     * @throws IOException if writing fails
+     */
+    synchronized void save()
+        throws IOException
+    {
+        File tempFile = new File(m_file.getPath() + ".tmp");
+        BufferedWriter writer = null;
+        try
+        {
+            writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(tempFile)),
+                                                               "UTF-8"));
+            for (Map.Entry<String, MirroredAuthor> entry : m_authors.entrySet())
+            {
+                writer.write("A\t" + entry.getKey() + "\t" + entry.getValue().m_refreshTime);
+                writer.newLine();
+                for (int id : entry.getValue().m_listIds)
+                {
+                    ArenaRecord record = m_listRecords.get(id);
+                    writer.write("R\t" + clean(record.getTitle())
+                                 + "\t" + clean(record.getAuthor())
+                                 + "\t" + record.getUrl());
+                    writer.newLine();
+                }
+            }
+        }
+        finally
+        {
+            if (writer != null)
+            {
+                writer.close();
+            }
+        }
+
+        if (!tempFile.renameTo(m_file))
+        {
+            m_file.delete();
+            if (!tempFile.renameTo(m_file))
+            {
+                throw new IOException("Cannot replace " + m_file);
+            }
+        }
+    }
+
+    /**
+     * Prints the number of books resolved locally and the mirror size.
+     */
+    synchronized void printStatistics()
+    {
+        int lookupCount = m_resolvedCount + m_missCount;
+        System.out.println("");
+        System.out.println("Catalog mirror: resolved=" + m_resolvedCount
+                           + " missed=" + m_missCount
+                           + " (avg lookup " + (lookupCount > 0 ? m_lookupTime / lookupCount / 1000 : 0) + " us)"
+                           + " authors refreshed=" + m_refreshCount
+                           + " authors=" + m_authors.size()
+                           + " records=" + (m_listRecords.size() - m_removedCount));
+    }
+
+    /**
+     * Adds a record to the index.
+     *
+     * @param mirrored author of the record
+     * @param record   the record
+     */
+    private void addRecord(MirroredAuthor mirrored,
+                           ArenaRecord    record)
+    {
+        int id = m_listRecords.size();
+        m_listRecords.add(record);
+        mirrored.m_listIds.add(id);
+        for (String key : getIndexKeys(record.getTitle(), record.getAuthor()))
+        {
+            List<Integer> listIds = m_index.get(key);
+            if (listIds == null)
+            {
+                listIds = new ArrayList<Integer>();
+                m_index.put(key, listIds);
+            }
+            listIds.add(id);
+        }
+    }
+
+    /**
+     * Removes a record replaced by a refresh from the index. The id is
+     * not reused.
+     *
+     * @param id id of the record
+     */
+    private void removeRecord(int id)
+    {
+        ArenaRecord record = m_listRecords.get(id);
+        for (String key : getIndexKeys(record.getTitle(), record.getAuthor()))
+        {
+            List<Integer> listIds = m_index.get(key);
+            listIds.remove(Integer.valueOf(id));
+            if (listIds.isEmpty())
+            {
+                m_index.remove(key);
+            }
+        }
+        m_listRecords.set(id, null);
+        m_removedCount++;
+    }
+
+    /**
+     * Gets the index keys of a title and an author.
+     *
+     * @param title  the title
+     * @param author the author
+     * @return the keys
+     */
+    private static Set<String> getIndexKeys(String title,
+                                            String author)
+    {
+        Set<String> setKeys = new HashSet<String>();
+        for (String word : RecordMatcher.getWords(RecordMatcher.normalize(title)))
+        {
+            setKeys.add(TITLE_PREFIX + word);
+        }
+        for (String word : RecordMatcher.getWords(RecordMatcher.normalize(author)))
+        {
+            setKeys.add(AUTHOR_PREFIX + word);
+        }
+        return setKeys;
+    }
+
+    /**
+     * Gets the key of an author.
+     *
+     * @param author the author
+     * @return author in lower case with single spaces
+     */
+    private static String getAuthorKey(String author)
+    {
+        return author.toLowerCase().replaceAll("\\s+", " ").trim();
+    }
+
+    /**
+     * Replaces the tabs and line breaks of a field with spaces.
+     *
+     * @param value the field
+     * @return the cleaned field
+     */
+    private static String clean(String value)
+    {
+        return value.replaceAll("[\\t\\r\\n]", " ");
+    }
+
+    /**
+     * Reads the mirror file.
+     *
+     * @throws IOException if reading fails
+     */
+    private void read()
+        throws IOException
+    {
+        BufferedReader reader = null;
+        try
+        {
+            reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(m_file)),
+                                                              "UTF-8"));
+
+            MirroredAuthor mirrored = null;
+            String inputLine;
+            while ((inputLine = reader.readLine()) != null)
+            {
+                String[] fields = inputLine.split("\t", -1);
+                if (fields.length == 3
+                        && fields[0].equals("A"))
+                {
+                    try
+                    {
+                        mirrored = new MirroredAuthor(Long.parseLong(fields[2]));
+                        m_authors.put(fields[1], mirrored);
+                    }
+                    catch (NumberFormatException e)
+                    {
+                        mirrored = null;
+                    }
+                }
+                else if (fields.length == 4
+                        && fields[0].equals("R")
+                        && mirrored != null)
+                {
+                    addRecord(mirrored,
+                              new ArenaRecord(fields[1],
+                                              fields[2],
+                                              fields[3],
+                                              null));
+                }
+            }
+        }
+        finally
+        {
+            if (reader != null)
+            {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Records of one mirrored author.
+     */
+    private static final class MirroredAuthor
+    {
+        /** Ids of the records */
+        private final List<Integer> m_listIds = new ArrayList<Integer>();
+        /** Time of the author search, 0 to refresh on the next check */
+        private long m_refreshTime;
+
+        /**
+         * Constructor for MirroredAuthor.
+         *
+         * @param refreshTime time of the author search
+         */
+        MirroredAuthor(long refreshTime)
+        {
+            m_refreshTime = refreshTime;
+        }
+    }
+}
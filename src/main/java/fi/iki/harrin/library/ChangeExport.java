@@ -0,0 +1,134 @@
+package fi.iki.harrin.library;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Writes the changes since the previous run to a file, so that other
+ * tools need to process only the changed books. The format is selected
+ * by the file suffix: .csv writes one row per change, anything else
+ * writes a JSON array. Times are in ISO 8601 format.
+ *
+ * @author $Author: $
+ */
+final class ChangeExport
+{
+    /** Column names of the CSV format */
+    private static final String CSV_HEADER =
+        "key,book,previous_status,status,previous_location,location,previous_check,check";
+
+    /**
+     * Constructor for ChangeExport.
+     */
+    private ChangeExport()
+    {
+    }
+
+    /**
+     * Writes the changes.
+     *
+     * @param file        output file
+     * @param listChanges changes in book list order
+     * @throws IOException if the file cannot be written
+     */
+    static void write(File                           file,
+                      List<StatusStore.StatusChange> listChanges)
+        throws IOException
+    {
+        Writer writer = null;
+        try
+        {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+            if (file.getName().toLowerCase().endsWith(".csv"))
+            {
+                writeCsv(writer, listChanges);
+            }
+            else
+            {
+                writeJson(writer, listChanges);
+            }
+        }
+        finally
+        {
+            if (writer != null)
+            {
+                writer.close();
+            }
+        }
+    }
+
+    /**
+     * Writes the changes as CSV.
+     *
+     * @param writer      output
+     * @param listChanges the changes
+     * @throws IOException if the output cannot be written
+     */
+    private static void writeCsv(Writer                         writer,
+                                 List<StatusStore.StatusChange> listChanges)
+        throws IOException
+    {
+        writer.write(CSV_HEADER);
+        writer.write('\n');
+        for (StatusStore.StatusChange change : listChanges)
+        {
+            BookInfo book = change.getBook();
+            writer.write(MetricsExport.quoteCsv(book.getKey()) + ","
+                         + MetricsExport.quoteCsv(book.getAuthor() + ": " + book.getTitle()) + ","
+                         + change.getPreviousStatus().name() + ","
+                         + change.getStatus().name() + ","
+                         + MetricsExport.quoteCsv(change.getPreviousLocation()) + ","
+                         + MetricsExport.quoteCsv(change.getLocation()) + ","
+                         + formatTime(change.getPreviousCheckTime()) + ","
+                         + formatTime(change.getCheckTime()));
+            writer.write('\n');
+        }
+    }
+
+    /**
+     * Writes the changes as a JSON array with an object per change.
+     *
+     * @param writer      output
+     * @param listChanges the changes
+     * @throws IOException if the output cannot be written
+     */
+    private static void writeJson(Writer                         writer,
+                                  List<StatusStore.StatusChange> listChanges)
+        throws IOException
+    {
+        writer.write("[");
+        String separator = "\n";
+        for (StatusStore.StatusChange change : listChanges)
+        {
+            BookInfo book = change.getBook();
+            writer.write(separator
+                         + "  {\"key\": " + MetricsExport.quoteJson(book.getKey())
+                         + ", \"book\": " + MetricsExport.quoteJson(book.getAuthor() + ": " + book.getTitle())
+                         + ", \"previous_status\": " + MetricsExport.quoteJson(change.getPreviousStatus().name())
+                         + ", \"status\": " + MetricsExport.quoteJson(change.getStatus().name())
+                         + ", \"previous_location\": " + MetricsExport.quoteJson(change.getPreviousLocation())
+                         + ", \"location\": " + MetricsExport.quoteJson(change.getLocation())
+                         + ", \"previous_check\": " + MetricsExport.quoteJson(formatTime(change.getPreviousCheckTime()))
+                         + ", \"check\": " + MetricsExport.quoteJson(formatTime(change.getCheckTime())) + "}");
+            separator = ",\n";
+        }
+        writer.write(separator.equals("\n") ? "]\n" : "\n]\n");
+    }
+
+    /**
+     * Formats a time in ISO 8601 format in UTC.
+     *
+     * @param time the time
+     * @return formatted time
+     */
+    static String formatTime(long time)
+    {
+        return Instant.ofEpochMilli(time).toString();
+    }
+}
@@ -0,0 +1,186 @@
+package fi.iki.harrin.library;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Append-only journal of the completed books of a run. An interrupted
+ * run can be resumed by replaying the journal and checking only the
+ * remaining books.
+ *
+ * The file has one tab separated line per book: index in the book list,
+ * book key, status and real location. Lines are flushed immediately and
+ * synced to disk in batches.
+ *
+ * @author $Author: $
+ */
+class CheckJournal
+{
+    /** Number of lines written between syncs to disk */
+    private static final int SYNC_INTERVAL = 10;
+
+    /** Journal file */
+    private final File m_file;
+    /** Output stream of the journal, used for syncing */
+    private FileOutputStream m_output = null;
+    /** Writer of the journal */
+    private BufferedWriter m_writer = null;
+    /** Number of lines written after the previous sync */
+    private int m_unsyncedCount = 0;
+    /** Fields of the loaded journal lines by book index */
+    private final Map<Integer, String[]> m_loadedLines = new HashMap<Integer, String[]>();
+
+    /**
+     * Constructor for CheckJournal.
+     *
+     * @param file journal file
+     */
+    CheckJournal(File file)
+    {
+        m_file = file;
+    }
+
+    /**
+     * Reads the journal of an earlier run.
+     *
+     * @throws IOException if reading fails
+     */
+    void load()
+        throws IOException
+    {
+        if (!m_file.exists())
+        {
+            return;
+        }
+
+        BufferedReader reader = null;
+        try
+        {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(m_file), "UTF-8"));
+
+            String inputLine;
+            while ((inputLine = reader.readLine()) != null)
+            {
+                String[] fields = inputLine.split("\t", -1);
+                if (fields.length != 4)
+                {
+                    continue; // partially written last line
+                }
+
+                try
+                {
+                    Integer index = Integer.valueOf(fields[0]);
+                    BookStatus.valueOf(fields[2]);
+                    m_loadedLines.put(index, fields);
+                }
+                catch (IllegalArgumentException e)
+                {
+                    // skip corrupted line
+                }
+            }
+        }
+        finally
+        {
+            if (reader != null)
+            {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Gets the result of a book from the loaded journal and sets its real
+     * location. A line not matching the book, e.g. after the list was
+     * edited, is ignored.
+     *
+     * @param book the book
+     * @return status or null if the book is not in the journal
+     */
+    BookStatus replay(BookInfo book)
+    {
+        String[] fields = m_loadedLines.get(book.getIndex());
+        if (fields == null
+                || !book.getKey().equals(fields[1]))
+        {
+            return null;
+        }
+
+        book.setRealLocation(fields[3]);
+        return BookStatus.valueOf(fields[2]);
+    }
+
+    /**
+     * Opens the journal for writing.
+     *
+     * @param append true to continue the existing journal, false to
+     *               start a new one
+     * @throws IOException if opening fails
+     */
+    void open(boolean append)
+        throws IOException
+    {
+        m_output = new FileOutputStream(m_file, append);
+        m_writer = new BufferedWriter(new OutputStreamWriter(m_output, "UTF-8"));
+    }
+
+    /**
+     * Appends the result of one book.
+     *
+     * @param book   the book
+     * @param status result of the check
+     * @throws IOException if writing fails
+     */
+    synchronized void append(BookInfo   book,
+                             BookStatus status)
+        throws IOException
+    {
+        m_writer.write(book.getIndex() + "\t"
+                       + book.getKey() + "\t"
+                       + status.name() + "\t"
+                       + book.getRealLocation().replace('\t', ' '));
+        m_writer.newLine();
+        m_writer.flush();
+
+        if (++m_unsyncedCount >= SYNC_INTERVAL)
+        {
+            sync();
+        }
+    }
+
+    /**
+     * Syncs and closes the journal.
+     *
+     * @throws IOException if writing fails
+     */
+    synchronized void close()
+        throws IOException
+    {
+        if (m_writer != null)
+        {
+            m_writer.flush();
+            sync();
+            m_writer.close();
+            m_writer = null;
+        }
+    }
+
+    /**
+     * Syncs the written lines to disk.
+     *
+     * @throws IOException if syncing fails
+     */
+    private void sync()
+        throws IOException
+    {
+        m_output.getChannel().force(false);
+        m_unsyncedCount = 0;
+    }
+}
@@ -1,21 +1,25 @@
 package fi.iki.harrin.library;
 
+import java.io.File;
 import java.io.IOException;
-import java.net.MalformedURLException;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
-import org.openqa.selenium.By;
-import org.openqa.selenium.NoSuchElementException;
 import org.openqa.selenium.WebDriver;
-import org.openqa.selenium.WebElement;
 import org.openqa.selenium.chrome.ChromeDriver;
-import org.openqa.selenium.interactions.Actions;
-import org.openqa.selenium.support.ui.ExpectedCondition;
-import org.openqa.selenium.support.ui.Select;
-import org.openqa.selenium.support.ui.WebDriverWait;
-import org.xml.sax.SAXException;
+import org.openqa.selenium.chrome.ChromeOptions;
+import org.openqa.selenium.remote.DesiredCapabilities;
 
 /**
  * Application for checking if library database has available books
@@ -25,32 +29,109 @@ import org.xml.sax.SAXException;
  */
 public class CheckLibrary
 {
-    /** Url of the start page */
-    private static final String LIBRARY_URL = "https://piki.verkkokirjasto.fi/web/arena/tarkennettu_haku";
+    /** Maximum number of tasks waiting for a worker */
+    private static final int QUEUE_CAPACITY = 100;
+    /** Interval of checking the end of the book list in milliseconds */
+    private static final long QUEUE_POLL_INTERVAL = 100;
+    /** Backoff of the first retry in milliseconds, doubled for each retry */
+    private static final long RETRY_BASE_DELAY = 2000;
 
     private long m_startTime = System.currentTimeMillis();
-    private long m_previousTime = System.currentTimeMillis();
+
+    /** Wall time spent in each page wait */
+    private final Timings m_waitTimings = new Timings();
+    /** Wall time spent in each phase of a query */
+    private final Timings m_phaseTimings = new Timings();
+    /** Wall time of each queried book */
+    private final Timings m_bookTimings = new Timings();
+    /** Page loads and transferred bytes of the browsers */
+    private final PageStatistics m_pageStatistics = new PageStatistics();
+
+    /** Command line options */
+    private final CheckOptions m_options;
+    /** Cache of earlier results or null if not used */
+    private AvailabilityCache m_cache = null;
+    /** Journal of completed books */
+    private CheckJournal m_journal = null;
+    /** Archive of recorded or replayed pages or null if not used */
+    private PageArchive m_archive = null;
+    /** Warm sessions of the Selenium server or null if not used */
+    private SessionPool m_sessionPool = null;
+    /** Adapts the lookups in flight to the server or null if not used */
+    private AdaptiveLimiter m_limiter = null;
+    /** Receives the results as they arrive or null if not used */
+    private ResultSink m_sink = null;
+    /** Record pages found by earlier searches or null if not used */
+    private RecordCache m_recordCache = null;
+    /** Catalog records of the listed authors or null if not used */
+    private CatalogMirror m_mirror = null;
+    /** Store of the statuses of the previous runs or null if not used */
+    private StatusStore m_statusStore = null;
+    /** Orders and counts the books of the target mode or null if not used */
+    private TargetPlanner m_targetPlanner = null;
+    /** Schedule of the watch mode or null if checking the list once */
+    private PollScheduler m_scheduler = null;
+    /** Changes found in the watch mode */
+    private final List<StatusStore.StatusChange> m_listWatchChanges = new ArrayList<StatusStore.StatusChange>();
+    /** Results of the run */
+    private final CheckResults m_results = new CheckResults();
+    /** Tasks waiting for a worker */
+    private final BlockingQueue<QueryTask> m_queue = new ArrayBlockingQueue<QueryTask>(QUEUE_CAPACITY);
+    /** Failed books waiting for their retry, bounded by the retry limit */
+    private final DelayQueue<QueryTask> m_retryQueue = new DelayQueue<QueryTask>();
+    /** Runs the workers */
+    private ExecutorService m_executor = null;
+    /** Number of workers still taking tasks from the queue */
+    private final AtomicInteger m_liveWorkerCount = new AtomicInteger();
+    /** Number of searches made */
+    private final AtomicInteger m_searchCount = new AtomicInteger();
+    /** Number of retries by failure type */
+    private final AtomicIntegerArray m_retryCounts = new AtomicIntegerArray(FailureType.values().length);
+    /** Number of query engines replaced after a dead session */
+    private final AtomicInteger m_recoveredSessionCount = new AtomicInteger();
+    /** Number of browser profiles taken into use */
+    private final AtomicInteger m_profileCount = new AtomicInteger();
+
+    /**
+     * Constructor for CheckLibrary.
+     *
+     * @param options command line options
+     */
+    CheckLibrary(CheckOptions options)
+    {
+        m_options = options;
+    }
 
     /**
      * Starts the application. Command line parameter specifies the
      * book list file.
      *
-     * @param args [0] is the book list filename
+     * @param args options and book list filename, see CheckOptions.USAGE
      */
     public static void main(String[] args)
     {
-        if (args == null
-                || args.length != 1)
+        CheckOptions options = null;
+        try
+        {
+            options = CheckOptions.parse(args);
+        }
+        catch (IllegalArgumentException e)
         {
-            System.out.println("Missing book list filename!");
+            System.out.println(e.getMessage());
+            System.out.println(CheckOptions.USAGE);
             System.exit(1);
         }
 
         try
         {
-            BookInfo[] aBooks = BookInfo.getBooks(args[0]);
-            CheckLibrary library = new CheckLibrary();
-            library.check(aBooks);
+            if (options.getServerPort() > 0)
+            {
+                new CheckServer(options).start();
+                return;
+            }
+
+            CheckLibrary library = new CheckLibrary(options);
+            library.check(options.getFilename());
         }
         catch (Exception e)
         {
@@ -58,333 +139,1240 @@ public class CheckLibrary
         }
     }
 
-    private void check(BookInfo[] aBooks)
-        throws MalformedURLException, IOException, SAXException
+    /**
+     * Checks the books of the list and prints the results and the
+     * statistics of the run.
+     *
+     * @param filename book list filename
+     * @throws InterruptedException if interrupted while waiting for the workers
+     * @throws IOException if the book list cannot be read
+     */
+    void check(String filename)
+        throws InterruptedException, IOException
     {
-        List<BookInfo> listAvailable = new ArrayList<BookInfo>();
-        List<BookInfo> listNotAvailable = new ArrayList<BookInfo>();
-        List<BookInfo> listOrdered = new ArrayList<BookInfo>();
-        List<BookInfo> listNotFound = new ArrayList<BookInfo>();
+        // the sessions warm up while the list is read
+        openSessionPool();
 
-        System.setProperty("webdriver.chrome.driver",
-                           "/usr/local/bin/chromedriver");
-        WebDriver driver = new ChromeDriver();
-        driver.get(LIBRARY_URL);
-//        WebElement localeLink = driver.findElement(By.linkText("FI"));
-//        localeLink.click();
+        if (m_options.getCacheFile() != null)
+        {
+            m_cache = new AvailabilityCache(m_options.getCacheFile());
+        }
+
+        if (m_options.isAdaptive())
+        {
+            m_limiter = new AdaptiveLimiter(m_options.getWorkerCount());
+        }
+        if (m_options.getOutputFile() != null)
+        {
+            m_sink = new FileResultSink(m_options.getOutputFile());
+        }
+        if (m_options.getRecordCacheFile() != null)
+        {
+            m_recordCache = new RecordCache(m_options.getRecordCacheFile());
+        }
+        if (m_options.getMirrorFile() != null)
+        {
+            m_mirror = new CatalogMirror(m_options.getMirrorFile());
+        }
+        if (m_options.getStatusFile() != null)
+        {
+            m_statusStore = new StatusStore(m_options.getStatusFile());
+        }
+        if (m_options.isWatch())
+        {
+            m_scheduler = new PollScheduler(m_options.getHourlyBudget());
+        }
+        if (m_options.getTarget() > 0)
+        {
+            m_targetPlanner = new TargetPlanner(m_options.getTarget(),
+                                                m_options.getShelfPrefixes(),
+                                                m_statusStore);
+        }
 
-//        driver.manage().window().setPosition(new Point(0, 0));
-//        driver.manage().window().setSize(new Dimension(1000, 1000));
+        m_journal = new CheckJournal(m_options.getJournalFile());
+        if (m_options.isResume())
+        {
+            m_journal.load();
+        }
+        m_journal.open(m_options.isResume());
 
-        for (int i = 0; i < aBooks.length; i++)
+        if (m_options.getRecordFile() != null)
         {
-            try
+            m_archive = PageArchive.create(m_options.getRecordFile());
+        }
+        else if (m_options.getReplayFile() != null)
+        {
+            m_archive = PageArchive.open(m_options.getReplayFile());
+        }
+
+        m_executor = Executors.newFixedThreadPool(m_options.getWorkerCount());
+        AuthorBatchPlanner planner = m_options.isBatch() ? new AuthorBatchPlanner() : null;
+        int resumedCount = 0;
+        BookListReader reader = new BookListReader(filename);
+        try
+        {
+            while (true)
             {
-                doQueryRequest(aBooks[i],
-                               driver,
-                               listAvailable,
-                               listNotAvailable,
-                               listOrdered,
-                               listNotFound);
+                BookInfo book;
+                try
+                {
+                    book = reader.readBook();
+                }
+                catch (BookListException e)
+                {
+                    System.out.println("ERROR: " + e.getMessage());
+                    continue;
+                }
+                if (book == null)
+                {
+                    break;
+                }
+                m_results.addBook(book);
+                if (m_targetPlanner != null
+                        && !m_targetPlanner.isIncluded(book))
+                {
+                    continue;
+                }
+
+                BookStatus status = m_journal.replay(book);
+                if (status != null)
+                {
+                    setResult(book,
+                              status,
+                              ResultSink.JOURNAL_SOURCE,
+                              0);
+                    resumedCount++;
+                    if (m_scheduler != null)
+                    {
+                        m_scheduler.schedule(book, status, System.currentTimeMillis());
+                    }
+                    continue;
+                }
+
+                status = m_cache != null ? m_cache.lookup(book) : null;
+                if (status != null)
+                {
+                    System.out.println(status.getLabel() + " (cached): " + book);
+                    setResult(book,
+                              status,
+                              ResultSink.CACHE_SOURCE,
+                              0);
+                    appendJournal(book, status);
+                    if (m_scheduler != null)
+                    {
+                        m_scheduler.schedule(book, status, System.currentTimeMillis());
+                    }
+                    continue;
+                }
+
+                if (m_scheduler != null)
+                {
+                    m_scheduler.add(book);
+                }
+                else if (planner != null)
+                {
+                    planner.add(book);
+                }
+                else if (m_targetPlanner != null)
+                {
+                    m_targetPlanner.add(book);
+                }
+                else
+                {
+                    dispatch(new QueryTask(book));
+                }
             }
-            catch (Exception e)
+
+            // grouping by author needs the whole list
+            if (planner != null)
             {
-                System.out.println("ERROR: " + aBooks[i]);
-                System.out.println(e.toString());
-                listNotFound.add(aBooks[i]);
-                e.printStackTrace();
-//                File scrFile = ((TakesScreenshot)driver).getScreenshotAs(OutputType.FILE);
-//                FileUtils.copyFile(scrFile, new File("~/Desktop/libScreenshot" + i + ".png"));
+                for (QueryTask task : planner.getTasks())
+                {
+                    dispatch(task);
+                }
+            }
+
+            // ordering by the chance of being available needs the whole list
+            if (m_targetPlanner != null)
+            {
+                for (BookInfo book : m_targetPlanner.getBooks())
+                {
+                    if (m_targetPlanner.isMet())
+                    {
+                        break;
+                    }
+                    dispatch(new QueryTask(book));
+                }
             }
 
-            printStatistics(i + 1,
-                            aBooks.length,
-                            listAvailable.size(),
-                            listNotAvailable.size(),
-                            listOrdered.size(),
-                            listNotFound.size());
+            if (m_scheduler != null)
+            {
+                m_results.setListComplete();
+                watch();
+            }
+        }
+        finally
+        {
+            reader.close();
+            m_results.setListComplete();
+            if (m_scheduler != null)
+            {
+                // the workers of the watch mode never run out of tasks
+                m_executor.shutdownNow();
+            }
+            else
+            {
+                m_executor.shutdown();
+            }
+        }
+        m_executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        closeSessionPool();
+        m_journal.close();
+        if (m_archive != null)
+        {
+            m_archive.close();
+        }
+
+        if (m_options.isResume())
+        {
+            System.out.println("Resumed " + resumedCount + "/" + m_results.getBookCount()
+                               + " books from " + m_options.getJournalFile());
+        }
+
+        // books left over if every worker failed to start a browser
+        int skippedCount = 0;
+        for (BookInfo book : m_results.getUncheckedBooks())
+        {
+            if (m_targetPlanner != null
+                    && (m_targetPlanner.isMet() || !m_targetPlanner.isIncluded(book)))
+            {
+                skippedCount++;
+                continue;
+            }
+            System.out.println("NOT CHECKED: " + book);
+            setResult(book,
+                      BookStatus.FAILED,
+                      "not checked",
+                      0);
+        }
+        if (m_sink != null)
+        {
+            m_sink.close();
         }
 
         System.out.println("");
         System.out.println(new Date());
 
         printResult("Available books",
-                    listAvailable,
-                    aBooks.length);
+                    m_results.getBooks(BookStatus.AVAILABLE),
+                    m_results.getBookCount());
 
         printResult("Ordered books",
-                    listOrdered,
-                    aBooks.length);
+                    m_results.getBooks(BookStatus.ORDERED),
+                    m_results.getBookCount());
 
         printResult("Books not available",
-                    listNotAvailable,
-                    aBooks.length);
+                    m_results.getBooks(BookStatus.NOT_AVAILABLE),
+                    m_results.getBookCount());
 
         printResult("Books not found",
-                    listNotFound,
-                    aBooks.length);
+                    m_results.getBooks(BookStatus.NOT_FOUND),
+                    m_results.getBookCount());
 
-        driver.quit();
-    }
+        printResult("Books failed",
+                    m_results.getBooks(BookStatus.FAILED),
+                    m_results.getBookCount());
 
-    private void printResult(String title,
-                             List<BookInfo> listBooks,
-                             int totalBookCount) {
-        System.out.println("");
-        System.out.println(title + " (" + listBooks.size() + "/" + totalBookCount + "):");
-
-        for (BookInfo book : listBooks)
+        if (m_options.getBranches().size() > 1)
         {
-            System.out.println("- " + book);
+            printBranchResults();
         }
-    }
 
-    private void printStatistics(int currentBook,
-                                 int bookCount,
-                                 int availableCount,
-                                 int notAvailableCount,
-                                 int orderedCount,
-                                 int notFoundCount) {
-        System.out.print("(" + currentBook + "/" + bookCount + ") ");
+        m_bookTimings.print("Book times");
+        m_phaseTimings.print("Phase times");
+        if (m_options.getEngine() == CheckOptions.Engine.SELENIUM)
+        {
+            m_waitTimings.print("Wait times");
+            m_pageStatistics.print();
+        }
+        if (m_sessionPool != null)
+        {
+            m_sessionPool.printStatistics();
+        }
+        if (m_options.getMetricsFile() != null)
+        {
+            writeMetrics(m_options.getMetricsFile());
+        }
 
-        System.out.print("(A=" + availableCount + ",NA=" + notAvailableCount + ",O=" + orderedCount + ",NF=" + notFoundCount + ") ");
+        if (m_cache != null)
+        {
+            m_cache.save();
+            m_cache.printStatistics();
+        }
+        if (m_recordCache != null)
+        {
+            m_recordCache.save();
+            m_recordCache.printStatistics();
+        }
+        if (m_mirror != null)
+        {
+            m_mirror.save();
+            m_mirror.printStatistics();
+        }
 
-        long currentTime = System.currentTimeMillis();
-        System.out.print(" Book time: " + printTime(currentTime - m_previousTime));
-        System.out.print(" Total time: " + printTime(currentTime - m_startTime));
-        System.out.println(" Avg: " +
-                printTime((currentTime - m_startTime) / currentBook));
+        if (m_statusStore != null)
+        {
+            updateStatusStore();
+        }
 
-        m_previousTime = currentTime;
+        System.out.println("");
+        System.out.println("Searches: " + m_searchCount.get());
+        printRetries();
+        if (m_targetPlanner != null)
+        {
+            System.out.println("Target: " + m_results.getCount(BookStatus.AVAILABLE) + "/" + m_targetPlanner.getTarget()
+                               + " available books found, " + skippedCount + " books skipped");
+        }
+        if (m_limiter != null)
+        {
+            System.out.println("Adaptive limits: in flight " + m_limiter.getLimit() + "/" + m_options.getWorkerCount()
+                               + ", rate " + AdaptiveLimiter.formatRate(m_limiter.getRate()));
+        }
     }
 
-    private String printTime(long milliseconds) {
-        int seconds = (int) (milliseconds / 1000);
-        int minutes = seconds / 60;
-        seconds = seconds % 60;
+    /**
+     * Compares the results with the status store of the previous runs,
+     * prints and exports the changes and saves the results to the store.
+     * Only the books queried in this run are stored, a result resumed
+     * from the journal or the cache would renew the check time of an
+     * old status.
+     *
+     * @throws IOException if the store or the export cannot be written
+     */
+    private void updateStatusStore()
+        throws IOException
+    {
+        long checkTime = System.currentTimeMillis();
+        List<StatusStore.StatusChange> listChanges = new ArrayList<StatusStore.StatusChange>();
+        for (BookInfo book : m_results.getBooks())
+        {
+            if (!m_results.isQueried(book))
+            {
+                continue;
+            }
+            StatusStore.StatusChange change = m_statusStore.update(book,
+                                                                   m_results.getStatus(book),
+                                                                   checkTime);
+            if (change != null)
+            {
+                listChanges.add(change);
+            }
+        }
+        m_statusStore.save();
+
+        System.out.println("");
+        System.out.println("Changes since the previous run (" + listChanges.size() + "):");
+        for (StatusStore.StatusChange change : listChanges)
+        {
+            System.out.println("- " + change.getDescription() + ": " + change.getBook()
+                               + " (checked " + ChangeExport.formatTime(change.getPreviousCheckTime()) + ")");
+        }
 
-        return minutes + " min " + seconds + " s ";// + millis + " ms.";
+        if (m_options.getChangesFile() != null)
+        {
+            ChangeExport.write(m_options.getChangesFile(),
+                               listChanges);
+        }
     }
 
-    private void doQueryRequest(BookInfo         book,
-                                WebDriver        driver,
-                                List<BookInfo>   listAvailable,
-                                List<BookInfo>   listNotAvailable,
-                                List<BookInfo>   listOrdered,
-                                List<BookInfo>   listNotFound)
-        throws MalformedURLException, IOException, SAXException
+    /**
+     * Keeps handing the scheduled books to the workers until
+     * interrupted. The workers and their browser sessions stay alive
+     * between the checks. When the JVM is shut down, e.g. by Ctrl-C,
+     * the watch is interrupted and the shutdown waits until the run has
+     * been finished, so that the sessions, the journal and the archive
+     * are closed.
+     */
+    private void watch()
     {
-        search(book, driver);
+        final Thread watchThread = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                watchThread.interrupt();
+                try
+                {
+                    watchThread.join();
+                }
+                catch (InterruptedException e)
+                {
+                    // exit without waiting
+                }
+            }
+        });
 
-        if (checkExistence(book,
-                           listAvailable,
-                           listNotAvailable,
-                           listOrdered,
-                           driver))
+        System.out.println("Watching " + m_results.getBookCount() + " books, at most "
+                           + m_options.getHourlyBudget() + " checks per hour");
+        try
+        {
+            while (true)
+            {
+                dispatch(new QueryTask(m_scheduler.take()));
+            }
+        }
+        catch (InterruptedException e)
+        {
+            System.out.println("Watch stopped");
+        }
+    }
+
+    /**
+     * Schedules the next check of a book in the watch mode and reports
+     * a change at once.
+     *
+     * @param book   the book
+     * @param status result of the check
+     */
+    private void scheduleWatch(BookInfo   book,
+                               BookStatus status)
+    {
+        long checkTime = System.currentTimeMillis();
+        m_scheduler.schedule(book,
+                             status,
+                             checkTime);
+        if (m_statusStore == null)
         {
             return;
         }
 
-        System.out.println("NOT FOUND: " + book);
-        listNotFound.add(book);
+        StatusStore.StatusChange change = m_statusStore.update(book,
+                                                               status,
+                                                               checkTime);
+        try
+        {
+            if (change != null)
+            {
+                System.out.println("CHANGED: " + change.getDescription() + ": " + book);
+                if (m_options.getChangesFile() != null)
+                {
+                    synchronized (m_listWatchChanges)
+                    {
+                        m_listWatchChanges.add(change);
+                        ChangeExport.write(m_options.getChangesFile(),
+                                           m_listWatchChanges);
+                    }
+                }
+            }
+            m_statusStore.save();
+        }
+        catch (IOException e)
+        {
+            System.out.println("ERROR: cannot write status store");
+            e.printStackTrace();
+        }
     }
 
-    private void search(BookInfo book,
-                        WebDriver driver) {
-        WebElement searchLink = driver.findElement(By.linkText("Tarkennettu haku"));
-        scrollTop(driver);
-        searchLink.click();
-
-        Select librarySelect = new Select(
-            driver.findElement(By.name("organisationHierarchyPanel:organisationContainer:organisationChoice")));
-        librarySelect.selectByVisibleText("Tampereen kaupunginkirjasto");
-        waitForElement(driver,
-                       By.xpath("//option[text()='Tampereen pääkirjasto']"));
-
-        Select categorySelect = new Select(
-            driver.findElement(By.name("materialPanel:mediaClassContainer:mediaClassChoice")));
-        categorySelect.selectByVisibleText("Kirja");
-
-        Select titleSelect = new Select(
-            driver.findElement(By.name("freeTextFieldsContainer:freeTextView:0:freeTextPanel:freeTextTypeChoice")));
-        titleSelect.selectByVisibleText("Teos");
-        WebElement titleField =
-             driver.findElement(By.name("freeTextFieldsContainer:freeTextView:0:freeTextPanel:freeTextField"));
-        titleField.sendKeys(book.getTitle());
-
-        if (book.getAuthor().length() > 1)
-        {
-            Select authorSelect = new Select(
-                driver.findElement(By.name("freeTextFieldsContainer:freeTextView:1:freeTextPanel:freeTextTypeChoice")));
-            authorSelect.selectByVisibleText("Tekijä");
-waitSomeTime();
-            WebElement authorField =
-                driver.findElement(By.name("freeTextFieldsContainer:freeTextView:1:freeTextPanel:freeTextField"));
-            authorField.sendKeys(book.getAuthor());
-        }
-
-        WebElement searchButton = driver.findElement(By.name("bottomButtonsContainer:bottomSearchButton"));
-        scrollAndClick(searchButton,
-                       driver);
+    /**
+     * Hands a task to the workers. Workers are started when tasks need
+     * querying, so that a list answered from the journal or cache starts
+     * no browser. A worker ended by an unexpected error is started again.
+     *
+     * @param task the task
+     * @throws InterruptedException if interrupted while waiting for the queue
+     */
+    private void dispatch(QueryTask task)
+        throws InterruptedException
+    {
+        if (m_liveWorkerCount.get() < m_options.getWorkerCount())
+        {
+            m_liveWorkerCount.incrementAndGet();
+            m_executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    runWorker();
+                }
+            });
+        }
+
+        while (m_liveWorkerCount.get() > 0
+                && !m_queue.offer(task, QUEUE_POLL_INTERVAL, TimeUnit.MILLISECONDS))
+        {
+            // wait for a free slot
+        }
     }
 
-    private void scrollTop(WebDriver driver) {
-        scrollToElement(findElement(driver,
-                                    By.cssSelector(".custom-logo")),
-                        driver);
+    /**
+     * Checks tasks from the shared queue with an own query engine
+     * until the whole book list has been read and the queue is empty,
+     * or until stopped in the watch mode.
+     * Retries whose backoff has passed are taken before new tasks. A
+     * query engine with a dead session is replaced with a new one before
+     * the next task. If the engine cannot be created, the books of the
+     * task are retried like after a dead session and the worker goes on.
+     */
+    private void runWorker()
+    {
+        QueryEngine engine = null;
+        boolean recovering = false;
+        try
+        {
+            while (true)
+            {
+                QueryTask task = m_retryQueue.poll();
+                if (task == null)
+                {
+                    task = m_queue.poll(QUEUE_POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                }
+                if (task == null)
+                {
+                    if (m_scheduler == null
+                            && m_results.isListComplete()
+                            && m_queue.isEmpty()
+                            && m_retryQueue.isEmpty())
+                    {
+                        break;
+                    }
+                    continue;
+                }
+                if (m_targetPlanner != null
+                        && m_targetPlanner.isMet())
+                {
+                    // dispatched while the target was being met
+                    continue;
+                }
 
-    }
+                if (engine == null)
+                {
+                    try
+                    {
+                        engine = createEngine();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        throw e;
+                    }
+                    catch (Exception e)
+                    {
+                        System.out.println("ERROR: cannot create query engine: " + e);
+                        failTask(task);
+                        continue;
+                    }
+                    if (recovering)
+                    {
+                        recovering = false;
+                        m_recoveredSessionCount.incrementAndGet();
+                        System.out.println("Recovered query engine session");
+                    }
+                }
 
-    private void scrollAndClick(WebElement element,
-                                WebDriver driver) {
-        scrollToElement(element,
-                        driver);
-        element.click();
-    }
+                boolean sessionDead;
+                if (task.isBatch())
+                {
+                    sessionDead = checkBatch(engine,
+                                             task);
+                }
+                else
+                {
+                    sessionDead = checkBook(engine,
+                                            task.getBooks().get(0),
+                                            null,
+                                            task.getRetryCount());
+                }
 
-    private void scrollToElement(WebElement element,
-                                 WebDriver driver) {
-        Actions actions = new Actions(driver);
-        actions.moveToElement(element);
-        actions.perform();
+                if (sessionDead)
+                {
+                    closeEngine(engine);
+                    engine = null;
+                    recovering = true;
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            // the watch mode was stopped
+        }
+        catch (Exception e)
+        {
+            System.out.println("ERROR: query engine failed");
+            e.printStackTrace();
+        }
+        finally
+        {
+            m_liveWorkerCount.decrementAndGet();
+            if (engine != null)
+            {
+                closeEngine(engine);
+            }
+        }
     }
 
-    private void waitSomeTime()
+    /**
+     * Fails the books of a task for which no query engine could be
+     * created. The books are retried until the retry limit is reached.
+     *
+     * @param task the task
+     */
+    private void failTask(QueryTask task)
     {
-        try {
-            Thread.sleep(2000);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
+        for (BookInfo book : task.getBooks())
+        {
+            failBook(book,
+                     task.getRetryCount());
         }
     }
 
-    private boolean checkExistence(BookInfo book,
-                                   List<BookInfo>   listAvailable,
-                                   List<BookInfo>   listNotAvailable,
-                                   List<BookInfo>   listOrdered,
-                                   WebDriver driver)
-        throws MalformedURLException, IOException, SAXException
+    /**
+     * Fails a book not checked because the session died. The book is
+     * retried until the retry limit is reached.
+     *
+     * @param book       the book
+     * @param retryCount number of failed attempts before this one
+     */
+    private void failBook(BookInfo book,
+                          int      retryCount)
     {
-        waitForText(driver, "Hakutulos");
-        waitSomeTime();
-
-        List<WebElement> availabilityLinks = driver.findElements(By.linkText("Saatavilla"));
-        if (availabilityLinks == null
-                || availabilityLinks.isEmpty())
+        if (retryCount < m_options.getRetryCount())
         {
-            return false;
+            scheduleRetry(book,
+                          retryCount,
+                          FailureType.DEAD_SESSION);
+            return;
         }
-        availabilityLinks.get(availabilityLinks.size() - 1).click();
 
-        waitForText(driver, "Tampereen kaupunginkirjasto");
-        WebElement tampereAvailabilityLink = findElement(driver,
-                                                         By.linkText("Tampereen kaupunginkirjasto"));
-        if (tampereAvailabilityLink == null)
+        System.out.println("ERROR (" + FailureType.DEAD_SESSION.getLabel() + "): " + book);
+        setResult(book,
+                  BookStatus.FAILED,
+                  ResultSink.SEARCH_SOURCE,
+                  0);
+        if (m_scheduler != null)
         {
-            return false;
+            scheduleWatch(book, BookStatus.FAILED);
         }
-//        scrollAndClick(tampereAvailabilityLink,
-//                       driver);
-        scrollToReview(driver);
-        tampereAvailabilityLink.click();
+    }
 
-        waitForText(driver, "Tampereen pääkirjasto");
-        WebElement paakirjastoAvailabilityLink = findElement(driver,
-                                                             By.linkText("Tampereen pääkirjasto"));
-        if (paakirjastoAvailabilityLink == null)
+    /**
+     * Closes a query engine. A dead browser session may fail to close,
+     * which is ignored.
+     *
+     * @param engine the engine
+     */
+    private void closeEngine(QueryEngine engine)
+    {
+        try
+        {
+            engine.close();
+        }
+        catch (RuntimeException e)
         {
-            return false;
+            System.out.println("ERROR: closing query engine failed: " + e);
         }
-        scrollToReview(driver);
-        scrollAndClick(paakirjastoAvailabilityLink,
-                       driver);
+    }
 
-        waitForText(driver, "Osasto:");
-        WebElement availableCountElement =
-            findElement(driver,
-                        By.xpath("//span[text()='Tampereen pääkirjasto']/../../following-sibling::div[@class='arena-holding-child-hyper-container']"
-                        + "//td[@class='arena-holding-nof-available-for-loan']/span[@class='arena-value']"));
-        if (availableCountElement == null)
+    /**
+     * Checks the books of an author with one author search. Books not
+     * matched in the result are searched separately. If the session
+     * dies, the remaining books are retried as single books until the
+     * retry limit is reached.
+     *
+     * @param engine the query engine
+     * @param task   author batch task
+     * @return true if the session of the engine is dead
+     * @throws InterruptedException if interrupted while waiting for the limiter
+     */
+    private boolean checkBatch(QueryEngine engine,
+                               QueryTask   task)
+        throws InterruptedException
+    {
+        List<ArenaRecord> listRecords;
+        try
         {
-            WebElement loanedCountElement =
-                findElement(driver,
-                            By.xpath("//span[text()='Tampereen pääkirjasto']/../../following-sibling::div[@class='arena-holding-child-hyper-container']"
-                                    + "//td[@class='arena-holding-nof-checked-out']/span[@class='arena-value']"));
-            if (loanedCountElement != null)
+            m_searchCount.incrementAndGet();
+            listRecords = engine.searchAuthor(task.getBatchAuthor());
+        }
+        catch (Exception e)
+        {
+            System.out.println("ERROR: author search " + task.getBatchAuthor());
+            System.out.println(e.toString());
+            if (FailureType.classify(e) == FailureType.DEAD_SESSION)
             {
-                listNotAvailable.add(book);
-                System.out.println("NOT AVAILABLE: " + book);
+                for (BookInfo book : task.getBooks())
+                {
+                    failBook(book,
+                             task.getRetryCount());
+                }
                 return true;
             }
+            listRecords = new ArrayList<ArenaRecord>();
+        }
 
-            WebElement orderedCountElement =
-                findElement(driver,
-                            By.xpath("//span[text()='Tampereen pääkirjasto']/../../following-sibling::div[@class='arena-holding-child-hyper-container']"
-                                   + "//td[@class='arena-holding-nof-ordered']/span[@class='arena-value']"));
-            if (orderedCountElement != null)
+        List<BookInfo> listBooks = task.getBooks();
+        for (int i = 0; i < listBooks.size(); i++)
+        {
+            if (checkBook(engine,
+                          listBooks.get(i),
+                          RecordMatcher.findBest(listBooks.get(i), listRecords),
+                          0))
             {
-                listOrdered.add(book);
-                System.out.println("ORDERED: " + book);
+                for (BookInfo book : listBooks.subList(i + 1, listBooks.size()))
+                {
+                    failBook(book,
+                             task.getRetryCount());
+                }
                 return true;
             }
+        }
+        return false;
+    }
 
-            return false;
+    /**
+     * Checks one book and stores the result. A transient failure is
+     * retried later until the retry limit is reached.
+     *
+     * @param engine     the query engine
+     * @param book       the book
+     * @param record     record of the book found by an author search or
+     *                   null to search the book
+     * @param retryCount number of failed attempts before this one
+     * @return true if the session of the engine is dead
+     * @throws InterruptedException if interrupted while waiting for the limiter
+     */
+    private boolean checkBook(QueryEngine engine,
+                              BookInfo    book,
+                              ArenaRecord record,
+                              int         retryCount)
+        throws InterruptedException
+    {
+        if (m_limiter != null)
+        {
+            m_limiter.acquire();
+        }
+        long bookStartTime = System.currentTimeMillis();
+        BookStatus status;
+        String timingName = ResultSink.SEARCH_SOURCE;
+        boolean queried = false;
+        boolean sessionDead = false;
+        try
+        {
+            status = null;
+            if (record != null)
+            {
+                status = engine.queryRecord(book,
+                                            record);
+                timingName = "record";
+            }
+            else if (m_recordCache != null
+                    && (record = m_recordCache.lookup(book)) != null)
+            {
+                status = queryCachedRecord(engine,
+                                           book,
+                                           record);
+                timingName = "cached record";
+                if (status == null)
+                {
+                    m_recordCache.remove(book);
+                }
+            }
+            if (status == null
+                    && m_mirror != null
+                    && (record = findMirrorRecord(engine, book)) != null)
+            {
+                status = queryCachedRecord(engine,
+                                           book,
+                                           record);
+                timingName = "mirror record";
+                if (status == null)
+                {
+                    m_mirror.invalidate(book);
+                }
+            }
+            if (status == null)
+            {
+                m_searchCount.incrementAndGet();
+                status = engine.query(book);
+                timingName = ResultSink.SEARCH_SOURCE;
+            }
+            System.out.println(status.getLabel() + ": " + book);
+            long queryTime = System.currentTimeMillis() - bookStartTime;
+            m_bookTimings.record(timingName,
+                                 queryTime);
+            if (m_cache != null)
+            {
+                m_cache.store(book,
+                              status,
+                              queryTime);
+            }
+            // a record without holdings is searched again next time
+            if (m_recordCache != null
+                    && status != BookStatus.NOT_FOUND
+                    && book.getRecordUrl() != null)
+            {
+                m_recordCache.store(book,
+                                    book.getRecordUrl());
+            }
+            queried = true;
         }
+        catch (Exception e)
+        {
+            FailureType failure = FailureType.classify(e);
+            sessionDead = failure == FailureType.DEAD_SESSION;
+            if (failure.isTransient()
+                    && retryCount < m_options.getRetryCount())
+            {
+                System.out.println("RETRY (" + failure.getLabel() + "): " + book);
+                System.out.println(e.toString());
+                scheduleRetry(book,
+                              retryCount,
+                              failure);
+                return sessionDead;
+            }
 
-        int availableCount = Integer.parseInt(availableCountElement.getText());
+            System.out.println("ERROR (" + failure.getLabel() + "): " + book);
+            System.out.println(e.toString());
+            status = BookStatus.FAILED;
+            e.printStackTrace();
+//            File scrFile = ((TakesScreenshot)driver).getScreenshotAs(OutputType.FILE);
+//            FileUtils.copyFile(scrFile, new File("~/Desktop/libScreenshot" + i + ".png"));
+        }
+        finally
+        {
+            if (m_limiter != null)
+            {
+                m_limiter.release(System.currentTimeMillis() - bookStartTime,
+                                  !queried);
+            }
+        }
 
-        if (availableCount > 0)
+        // a recheck of the watch mode is not journaled again
+        boolean firstCheck = m_results.getStatus(book) == null;
+        setResult(book,
+                  status,
+                  timingName,
+                  System.currentTimeMillis() - bookStartTime);
+        if (queried)
+        {
+            m_results.setQueried(book);
+        }
+        if (queried && firstCheck)
+        {
+            appendJournal(book, status);
+        }
+        if (m_scheduler != null)
         {
-            WebElement shelfElement =
-                findElement(driver,
-                            By.xpath("//span[text()='Tampereen pääkirjasto']/../../following-sibling::div[@class='arena-holding-child-hyper-container']"
-                            + "//td[@class='arena-holding-shelf-mark']/span[@class='arena-value']"));
-            book.setRealLocation(shelfElement.getText());
+            scheduleWatch(book, status);
+        }
+        printStatistics(m_results,
+                        System.currentTimeMillis() - bookStartTime);
+        return sessionDead;
+    }
 
-            listAvailable.add(book);
-            System.out.println("AVAILABLE: " + book);
-        } else {
-            listNotAvailable.add(book);
-            System.out.println("NOT AVAILABLE: " + book);
+    /**
+     * Stores the result of a book and hands it to the result sink.
+     *
+     * @param book      the book
+     * @param status    result of the check
+     * @param source    how the result was found
+     * @param queryTime duration of the query in milliseconds
+     */
+    private void setResult(BookInfo   book,
+                           BookStatus status,
+                           String     source,
+                           long       queryTime)
+    {
+        m_results.setResult(book, status);
+        if (m_sink != null)
+        {
+            m_sink.write(book,
+                         status,
+                         source,
+                         queryTime);
+        }
+        if (m_targetPlanner != null
+                && m_targetPlanner.countResult(status))
+        {
+            cancelOutstanding();
+        }
+    }
+
+    /**
+     * Drops the queued tasks and retries after the target of the run
+     * has been met. Lookups already running are completed.
+     */
+    private void cancelOutstanding()
+    {
+        m_queue.clear();
+        m_retryQueue.clear();
+        System.out.println("TARGET MET: " + m_targetPlanner.getTarget()
+                           + " available books found, cancelling the remaining lookups");
+    }
+
+    /**
+     * Checks a book from the record page found by an earlier search.
+     *
+     * @param engine the query engine
+     * @param book   the book
+     * @param record cached record of the book
+     * @return status of the book or null if the record page no longer
+     *         shows the holdings and the book must be searched
+     * @throws Exception if the session of the engine died
+     */
+    private BookStatus queryCachedRecord(QueryEngine engine,
+                                         BookInfo    book,
+                                         ArenaRecord record)
+        throws Exception
+    {
+        try
+        {
+            BookStatus status = engine.queryRecord(book,
+                                                   record);
+            if (status != BookStatus.NOT_FOUND)
+            {
+                return status;
+            }
+        }
+        catch (Exception e)
+        {
+            if (FailureType.classify(e) == FailureType.DEAD_SESSION)
+            {
+                throw e;
+            }
         }
 
-        return true;
+        System.out.println("RECORD MOVED: " + book);
+        return null;
+    }
+
+    /**
+     * Finds the record of a book from the catalog mirror. The records of
+     * the author are searched first if they are missing or old. A failed
+     * author search leaves the book to be searched by title.
+     *
+     * @param engine the query engine
+     * @param book   the book
+     * @return the record or null if the book must be searched
+     * @throws Exception if the session of the engine died
+     */
+    private ArenaRecord findMirrorRecord(QueryEngine engine,
+                                         BookInfo    book)
+        throws Exception
+    {
+        if (m_mirror.claimRefresh(book.getAuthor()))
+        {
+            boolean stored = false;
+            try
+            {
+                m_searchCount.incrementAndGet();
+                m_mirror.store(book.getAuthor(),
+                               engine.searchAuthor(book.getAuthor()));
+                stored = true;
+            }
+            catch (Exception e)
+            {
+                System.out.println("ERROR: author search " + book.getAuthor());
+                System.out.println(e.toString());
+                if (FailureType.classify(e) == FailureType.DEAD_SESSION)
+                {
+                    throw e;
+                }
+            }
+            finally
+            {
+                if (!stored)
+                {
+                    m_mirror.abandon(book.getAuthor());
+                }
+            }
+        }
+        return m_mirror.lookup(book);
+    }
+
+    /**
+     * Queues a failed book to be retried after an exponential backoff.
+     *
+     * @param book       the book
+     * @param retryCount number of failed attempts before the failed one
+     * @param failure    type of the failure
+     */
+    private void scheduleRetry(BookInfo    book,
+                               int         retryCount,
+                               FailureType failure)
+    {
+        m_retryCounts.incrementAndGet(failure.ordinal());
+        m_retryQueue.add(new QueryTask(book,
+                                       retryCount + 1,
+                                       RETRY_BASE_DELAY << retryCount));
+    }
+
+    /**
+     * Appends a completed book to the journal. Failing to write the
+     * journal does not stop the run, it only prevents resuming it.
+     *
+     * @param book   the book
+     * @param status result of the check
+     */
+    private void appendJournal(BookInfo   book,
+                               BookStatus status)
+    {
+        try
+        {
+            m_journal.append(book, status);
+        }
+        catch (IOException e)
+        {
+            System.out.println("ERROR: cannot write journal");
+            e.printStackTrace();
+        }
     }
 
-    private void scrollToReview(WebDriver driver) {
-        scrollToElement(findElement(driver,
-                                    By.cssSelector(".arena-review-subtitle")),
-                        driver);
+    /**
+     * Prints the number of retries by failure type and the number of
+     * replaced query engine sessions.
+     */
+    private void printRetries()
+    {
+        int retryCount = 0;
+        StringBuilder retries = new StringBuilder();
+        for (FailureType failure : FailureType.values())
+        {
+            if (!failure.isTransient())
+            {
+                continue;
+            }
+            retryCount += m_retryCounts.get(failure.ordinal());
+            retries.append(retries.length() > 0 ? ", " : "")
+                   .append(failure.getLabel()).append('=').append(m_retryCounts.get(failure.ordinal()));
+        }
+        System.out.println("Retries: " + retryCount + " (" + retries + ")");
+        System.out.println("Recovered sessions: " + m_recoveredSessionCount.get());
     }
 
-    private WebElement findElement(WebDriver driver,
-                                   By by)
+    /**
+     * Exports the latency distributions of the run.
+     *
+     * @param file output file
+     */
+    private void writeMetrics(File file)
     {
+        Map<String, Timings> mapTimings = new LinkedHashMap<String, Timings>();
+        mapTimings.put("book", m_bookTimings);
+        mapTimings.put("phase", m_phaseTimings);
+        mapTimings.put("wait", m_waitTimings);
         try
         {
-            return driver.findElement(by);
+            MetricsExport.write(file, mapTimings);
+            System.out.println("");
+            System.out.println("Metrics written to " + file);
+        }
+        catch (IOException e)
+        {
+            System.out.println("ERROR: cannot write metrics to " + file);
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Starts warming the browser sessions if they are taken from a
+     * Selenium server. One session more than the workers is kept for
+     * replacing a dead session.
+     */
+    void openSessionPool()
+    {
+        if (m_options.getEngine() != CheckOptions.Engine.SELENIUM
+                || m_options.getRemoteUrl() == null)
+        {
+            return;
         }
-        catch (NoSuchElementException e)
+
+        DesiredCapabilities capabilities = DesiredCapabilities.chrome();
+        if (m_options.isHeadless())
         {
-            return null;
+            capabilities.setCapability(ChromeOptions.CAPABILITY,
+                                       LeanChromeOptions.create(null));
         }
+        m_sessionPool = new SessionPool(m_options.getRemoteUrl(),
+                                        capabilities,
+                                        m_options.getLibraryUrl(),
+                                        m_options.getWorkerCount() + 1);
+        m_sessionPool.start();
+        System.out.println("Warming " + (m_options.getWorkerCount() + 1)
+                           + " browser sessions at " + m_options.getRemoteUrl());
     }
 
-    private void waitForText(WebDriver driver,
-                             final String text)
+    /**
+     * Quits the pooled browser sessions, if any.
+     */
+    void closeSessionPool()
     {
-        final By by = By.xpath("//span[contains(text(), '" + text + "')]");
-        waitForElement(driver,
-                       by);
+        if (m_sessionPool != null)
+        {
+            m_sessionPool.close();
+        }
     }
 
-    private void waitForElement(WebDriver driver,
-                                final By by) {
-        (new WebDriverWait(driver, 30)).until(new ExpectedCondition<Boolean>() {
-            @Override
-            public Boolean apply(WebDriver d) {
-                return d.findElement(by) != null;
+    /**
+     * Creates the query engine selected on the command line.
+     *
+     * @return the engine
+     * @throws InterruptedException if interrupted while waiting for a
+     *                              pooled browser session
+     */
+    QueryEngine createEngine()
+        throws InterruptedException
+    {
+        if (m_options.getEngine() == CheckOptions.Engine.HTTP)
+        {
+            if (m_archive == null)
+            {
+                return new HttpQueryEngine(m_options.getLibraryUrl(),
+                                           new HttpPageFetcher(),
+                                           m_options.getBranches(),
+                                           m_phaseTimings);
             }
-        });
+
+            ArchivePageFetcher fetcher =
+                new ArchivePageFetcher(m_archive,
+                                       m_options.getReplayFile() == null ? new HttpPageFetcher() : null);
+            return new ArchiveQueryEngine(new HttpQueryEngine(m_options.getLibraryUrl(),
+                                                              fetcher,
+                                                              m_options.getBranches(),
+                                                              m_phaseTimings),
+                                          fetcher);
+        }
+        if (m_sessionPool != null)
+        {
+            return new SeleniumQueryEngine(m_sessionPool.take(),
+                                           m_sessionPool,
+                                           m_options.getLibraryUrl(),
+                                           m_options.getBranches(),
+                                           m_options.getSearch() == CheckOptions.Search.URL,
+                                           m_waitTimings,
+                                           m_phaseTimings,
+                                           m_pageStatistics);
+        }
+        return new SeleniumQueryEngine(createDriver(),
+                                       null,
+                                       m_options.getLibraryUrl(),
+                                       m_options.getBranches(),
+                                       m_options.getSearch() == CheckOptions.Search.URL,
+                                       m_waitTimings,
+                                       m_phaseTimings,
+                                       m_pageStatistics);
+    }
+
+    /**
+     * Starts a browser. Each worker keeps its own profile under the
+     * profile directory, as a profile cannot be used by two browsers at
+     * the same time.
+     *
+     * @return the browser session
+     */
+    private WebDriver createDriver()
+    {
+        System.setProperty("webdriver.chrome.driver",
+                           "/usr/local/bin/chromedriver");
+
+        File profileDir = null;
+        if (m_options.getProfileDir() != null)
+        {
+            profileDir = new File(m_options.getProfileDir(),
+                                  "worker" + m_profileCount.incrementAndGet());
+        }
+
+        if (m_options.isHeadless())
+        {
+            return new ChromeDriver(LeanChromeOptions.create(profileDir));
+        }
+        if (profileDir == null)
+        {
+            return new ChromeDriver();
+        }
+        ChromeOptions options = new ChromeOptions();
+        options.addArguments("--user-data-dir=" + profileDir.getAbsolutePath());
+        return new ChromeDriver(options);
+    }
+
+    private void printResult(String title,
+                             List<BookInfo> listBooks,
+                             int totalBookCount) {
+        System.out.println("");
+        System.out.println(title + " (" + listBooks.size() + "/" + totalBookCount + "):");
+
+        for (BookInfo book : listBooks)
+        {
+            System.out.println("- " + book);
+        }
+    }
+
+    /**
+     * Prints the availability in each branch of interest. Books found
+     * without holdings read in this run, i.e. answered from the journal
+     * or the cache, are counted as unknown.
+     */
+    private void printBranchResults()
+    {
+        List<BookInfo> listBooks = m_results.getBooks();
+        List<BookInfo> listNotFoundBooks = m_results.getBooks(BookStatus.NOT_FOUND);
+        for (String branch : m_options.getBranches())
+        {
+            int[] counts = new int[BookStatus.values().length];
+            int unknownCount = 0;
+            List<BookInfo> listAvailableBooks = new ArrayList<BookInfo>();
+            for (BookInfo book : listBooks)
+            {
+                if (!book.hasBranchHoldings()
+                        && !listNotFoundBooks.contains(book))
+                {
+                    unknownCount++;
+                    continue;
+                }
+
+                Holdings holdings = book.getBranchHoldings(branch);
+                BookStatus status = holdings != null ? holdings.getStatus() : BookStatus.NOT_FOUND;
+                counts[status.ordinal()]++;
+                if (status == BookStatus.AVAILABLE)
+                {
+                    BookInfo branchBook = book.getCopy();
+                    branchBook.setRealLocation(holdings.getShelfMark());
+                    listAvailableBooks.add(branchBook);
+                }
+            }
+
+            printResult("Available at " + branch
+                        + " (NA=" + counts[BookStatus.NOT_AVAILABLE.ordinal()]
+                        + ",O=" + counts[BookStatus.ORDERED.ordinal()]
+                        + ",NF=" + counts[BookStatus.NOT_FOUND.ordinal()]
+                        + ",unknown=" + unknownCount + ")",
+                        listAvailableBooks,
+                        listBooks.size());
+        }
+    }
+
+    private synchronized void printStatistics(CheckResults results,
+                                              long bookTime) {
+        int currentBook = results.getCompletedCount();
+        System.out.print("(" + currentBook + "/" + results.getBookCount()
+                         + (results.isListComplete() ? "" : "+") + ") ");
+
+        System.out.print("(A=" + results.getCount(BookStatus.AVAILABLE)
+                         + ",NA=" + results.getCount(BookStatus.NOT_AVAILABLE)
+                         + ",O=" + results.getCount(BookStatus.ORDERED)
+                         + ",NF=" + results.getCount(BookStatus.NOT_FOUND)
+                         + ",F=" + results.getCount(BookStatus.FAILED) + ") ");
+
+        long totalTime = System.currentTimeMillis() - m_startTime;
+        System.out.print(" Book time: " + printTime(bookTime));
+        System.out.print(" Total time: " + printTime(totalTime));
+        System.out.print(" Avg: " +
+                printTime(totalTime / currentBook));
+        System.out.println(" Throughput: " +
+                String.format("%.1f", currentBook * 60000.0 / Math.max(1, totalTime)) + " books/min");
+    }
+
+    private String printTime(long milliseconds) {
+        int seconds = (int) (milliseconds / 1000);
+        int millis = (int) (milliseconds % 1000);
+        int minutes = seconds / 60;
+        seconds = seconds % 60;
+
+        return minutes + " min " + seconds + " s " + millis + " ms ";
     }
 }
\ No newline at end of file
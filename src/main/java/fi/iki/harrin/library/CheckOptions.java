@@ -0,0 +1,806 @@
+package fi.iki.harrin.library;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Command line options of the application.
+ *
+ * @author $Author: $
+ */
+class CheckOptions
+{
+    /** Usage text printed on invalid command line */
+    static final String USAGE =
+        "Usage: CheckLibrary [-workers N] [-engine selenium|http] [-url starturl]\n"
+        + "                    [-retries N] [-adaptive]\n"
+        + "                    [-search url|form] [-headless] [-profile dir | -remote serverurl]\n"
+        + "                    [-branches branch,branch...]\n"
+        + "                    [-cache file] [-records file] [-mirror file]\n"
+        + "                    [-journal file] [-resume] [-batch]\n"
+        + "                    [-metrics file.json|file.csv] [-output file.jsonl|file.csv]\n"
+        + "                    [-status file] [-changes file.json|file.csv]\n"
+        + "                    [-watch] [-budget N] [-target N] [-shelves prefix,prefix...]\n"
+        + "                    [-record file.zip | -replay file.zip] booklist\n"
+        + "       CheckLibrary -serve port [-workers N] [-engine selenium|http] [-url starturl]\n"
+        + "                    [-retries N] [-search url|form] [-headless]\n"
+        + "                    [-profile dir | -remote serverurl]\n"
+        + "                    [-branches branch,branch...]";
+
+    /** Branch checked by default */
+    static final String DEFAULT_BRANCH = "Tampereen pääkirjasto";
+
+    /** Number of retries of a failed book by default */
+    static final int DEFAULT_RETRY_COUNT = 3;
+
+    /** Number of checks per hour in the watch mode by default */
+    static final int DEFAULT_HOURLY_BUDGET = 600;
+
+    /** Url of the default start page */
+    static final String DEFAULT_LIBRARY_URL = "https://piki.verkkokirjasto.fi/web/arena/tarkennettu_haku";
+
+    /**
+     * Ways to query the library database.
+     */
+    enum Engine
+    {
+        /** Drives the web application with a browser */
+        SELENIUM,
+        /** Requests the pages directly without a browser */
+        HTTP
+    }
+
+    /**
+     * Ways to open the search result page in the browser.
+     */
+    enum Search
+    {
+        /** Loads the result page by url, falls back to the form */
+        URL,
+        /** Fills the advanced search form */
+        FORM
+    }
+
+    /** Book list filename */
+    private String m_filename = null;
+    /** Number of parallel browser sessions */
+    private int m_workerCount = 1;
+    /** Number of retries of a book failing with a transient error */
+    private int m_retryCount = DEFAULT_RETRY_COUNT;
+    /** Adapt the lookups in flight to the server latency */
+    private boolean m_adaptive = false;
+    /** Query engine */
+    private Engine m_engine = Engine.SELENIUM;
+    /** Search path of the browser */
+    private Search m_search = Search.URL;
+    /** Run a headless browser loading only the needed content */
+    private boolean m_headless = false;
+    /** Directory of the kept browser profiles or null */
+    private File m_profileDir = null;
+    /** Url of the Selenium server giving the browser sessions or null */
+    private URL m_remoteUrl = null;
+    /** Url of the start page */
+    private String m_libraryUrl = DEFAULT_LIBRARY_URL;
+    /** Branches whose holdings are checked, the first one gives the status */
+    private List<String> m_listBranches = Collections.singletonList(DEFAULT_BRANCH);
+    /** Cache file of earlier results or null */
+    private File m_cacheFile = null;
+    /** Cache file of the record pages found by search or null */
+    private File m_recordCacheFile = null;
+    /** Mirror file of the catalog records of the listed authors or null */
+    private File m_mirrorFile = null;
+    /** Journal file of completed books or null for default */
+    private File m_journalFile = null;
+    /** Continue the run recorded in the journal */
+    private boolean m_resume = false;
+    /** Search the books of an author with one author search */
+    private boolean m_batch = false;
+    /** Keep checking the books on a schedule until stopped */
+    private boolean m_watch = false;
+    /** Maximum number of checks started in an hour in the watch mode */
+    private int m_hourlyBudget = DEFAULT_HOURLY_BUDGET;
+    /** Number of available books to find before stopping or 0 to check all */
+    private int m_target = 0;
+    /** Shelf number prefixes of the books checked for the target */
+    private List<String> m_listShelfPrefixes = Collections.emptyList();
+    /** Port of the server mode or 0 if checking a book list */
+    private int m_serverPort = 0;
+    /** Export file of latency metrics or null */
+    private File m_metricsFile = null;
+    /** Stream file of the results or null */
+    private File m_outputFile = null;
+    /** Store of the statuses of the previous runs or null */
+    private File m_statusFile = null;
+    /** Export file of the changes since the previous run or null */
+    private File m_changesFile = null;
+    /** Archive recording the fetched pages or null */
+    private File m_recordFile = null;
+    /** Archive replaying the pages instead of the network or null */
+    private File m_replayFile = null;
+
+    /**
+     * Constructor for CheckOptions.
+     */
+    private CheckOptions()
+    {
+    }
+
+    /**
+     * Parses the command line.
+     *
+     * @param args command line parameters
+     * @return parsed options
+     * @throws IllegalArgumentException if the command line is invalid
+     */
+    static CheckOptions parse(String[] args)
+    {
+        CheckOptions options = new CheckOptions();
+
+        for (int i = 0; args != null && i < args.length; i++)
+        {
+            String arg = args[i];
+            if (arg.equals("-workers"))
+            {
+                options.m_workerCount = parsePositive(arg,
+                                                      getValue(args, ++i, arg));
+            }
+            else if (arg.equals("-retries"))
+            {
+                options.m_retryCount = parseNumber(arg,
+                                                   getValue(args, ++i, arg),
+                                                   0);
+            }
+            else if (arg.equals("-adaptive"))
+            {
+                options.m_adaptive = true;
+            }
+            else if (arg.equals("-engine"))
+            {
+                options.m_engine = parseEngine(arg,
+                                               getValue(args, ++i, arg));
+            }
+            else if (arg.equals("-search"))
+            {
+                options.m_search = parseSearch(arg,
+                                               getValue(args, ++i, arg));
+            }
+            else if (arg.equals("-headless"))
+            {
+                options.m_headless = true;
+            }
+            else if (arg.equals("-profile"))
+            {
+                options.m_profileDir = new File(getValue(args, ++i, arg));
+            }
+            else if (arg.equals("-remote"))
+            {
+                options.m_remoteUrl = parseUrl(arg,
+                                               getValue(args, ++i, arg));
+            }
+            else if (arg.equals("-branches"))
+            {
+                options.m_listBranches = parseList(arg,
+                                                   getValue(args, ++i, arg));
+            }
+            else if (arg.equals("-url"))
+            {
+                options.m_libraryUrl = getValue(args, ++i, arg);
+            }
+            else if (arg.equals("-cache"))
+            {
+                options.m_cacheFile = new File(getValue(args, ++i, arg));
+            }
+            else if (arg.equals("-records"))
+            {
+                options.m_recordCacheFile = new File(getValue(args, ++i, arg));
+            }
+            else if (arg.equals("-mirror"))
+            {
+                options.m_mirrorFile = new File(getValue(args, ++i, arg));
+            }
+            else if (arg.equals("-journal"))
+            {
+                options.m_journalFile = new File(getValue(args, ++i, arg));
+            }
+            else if (arg.equals("-resume"))
+            {
+                options.m_resume = true;
+            }
+            else if (arg.equals("-batch"))
+            {
+                options.m_batch = true;
+            }
+            else if (arg.equals("-watch"))
+            {
+                options.m_watch = true;
+            }
+            else if (arg.equals("-budget"))
+            {
+                options.m_hourlyBudget = parsePositive(arg,
+                                                       getValue(args, ++i, arg));
+            }
+            else if (arg.equals("-target"))
+            {
+                options.m_target = parsePositive(arg,
+                                                 getValue(args, ++i, arg));
+            }
+            else if (arg.equals("-shelves"))
+            {
+                options.m_listShelfPrefixes = parseList(arg,
+                                                        getValue(args, ++i, arg));
+            }
+            else if (arg.equals("-serve"))
+            {
+                options.m_serverPort = parsePositive(arg,
+                                                     getValue(args, ++i, arg));
+            }
+            else if (arg.equals("-metrics"))
+            {
+                options.m_metricsFile = new File(getValue(args, ++i, arg));
+            }
+            else if (arg.equals("-output"))
+            {
+                options.m_outputFile = new File(getValue(args, ++i, arg));
+            }
+            else if (arg.equals("-status"))
+            {
+                options.m_statusFile = new File(getValue(args, ++i, arg));
+            }
+            else if (arg.equals("-changes"))
+            {
+                options.m_changesFile = new File(getValue(args, ++i, arg));
+            }
+            else if (arg.equals("-record"))
+            {
+                options.m_recordFile = new File(getValue(args, ++i, arg));
+            }
+            else if (arg.equals("-replay"))
+            {
+                options.m_replayFile = new File(getValue(args, ++i, arg));
+            }
+            else if (arg.startsWith("-"))
+            {
+                throw new IllegalArgumentException("Unknown option " + arg);
+            }
+            else if (options.m_filename == null)
+            {
+                options.m_filename = arg;
+            }
+            else
+            {
+                throw new IllegalArgumentException("Too many book list filenames!");
+            }
+        }
+
+        if (options.m_remoteUrl != null)
+        {
+            if (options.m_engine != Engine.SELENIUM)
+            {
+                throw new IllegalArgumentException("-remote requires -engine selenium");
+            }
+            if (options.m_profileDir != null)
+            {
+                throw new IllegalArgumentException("Cannot use -profile with -remote");
+            }
+        }
+        if (options.m_serverPort > 0)
+        {
+            if (options.m_filename != null)
+            {
+                throw new IllegalArgumentException("Cannot use a book list with -serve");
+            }
+            if (options.m_cacheFile != null
+                    || options.m_recordCacheFile != null
+                    || options.m_mirrorFile != null
+                    || options.m_journalFile != null
+                    || options.m_resume
+                    || options.m_adaptive
+                    || options.m_batch
+                    || options.m_watch
+                    || options.m_target > 0
+                    || !options.m_listShelfPrefixes.isEmpty()
+                    || options.m_metricsFile != null
+                    || options.m_outputFile != null
+                    || options.m_statusFile != null
+                    || options.m_recordFile != null
+                    || options.m_replayFile != null)
+            {
+                throw new IllegalArgumentException("-serve supports only the query options");
+            }
+            return options;
+        }
+        if (options.m_filename == null)
+        {
+            throw new IllegalArgumentException("Missing book list filename!");
+        }
+        if (options.m_recordFile != null)
+        {
+            if (options.m_replayFile != null)
+            {
+                throw new IllegalArgumentException("Cannot use -record with -replay");
+            }
+            if (options.m_engine != Engine.HTTP)
+            {
+                throw new IllegalArgumentException("-record requires -engine http");
+            }
+        }
+        if (options.m_replayFile != null
+                && options.m_cacheFile != null)
+        {
+            throw new IllegalArgumentException("Cannot use -cache with -replay");
+        }
+        if (options.m_replayFile != null
+                && options.m_recordCacheFile != null)
+        {
+            throw new IllegalArgumentException("Cannot use -records with -replay");
+        }
+        if (options.m_replayFile != null
+                && (options.m_statusFile != null || options.m_changesFile != null))
+        {
+            throw new IllegalArgumentException("Cannot use -status or -changes with -replay");
+        }
+        if (options.m_changesFile != null
+                && options.m_statusFile == null)
+        {
+            throw new IllegalArgumentException("-changes requires -status");
+        }
+        if (options.m_watch
+                && options.m_batch)
+        {
+            throw new IllegalArgumentException("Cannot use -batch with -watch");
+        }
+        if (options.m_mirrorFile != null
+                && options.m_batch)
+        {
+            throw new IllegalArgumentException("Cannot use -batch with -mirror");
+        }
+        if (options.m_target > 0
+                && (options.m_watch || options.m_batch))
+        {
+            throw new IllegalArgumentException("Cannot use -target with -watch or -batch");
+        }
+        if (!options.m_listShelfPrefixes.isEmpty()
+                && options.m_target == 0)
+        {
+            throw new IllegalArgumentException("-shelves requires -target");
+        }
+
+        return options;
+    }
+
+    /**
+     * Gets the value.
+     *
+     * @return the value
+     */
+    String getFilename()
+    {
+        return m_filename;
+    }
+
+    /**
+     * Gets the value.
+     *
+     * @return the value
+     */
+    int getWorkerCount()
+    {
+        return m_workerCount;
+    }
+
+    /**
+     * Gets the value.
+     *
+     * @return the value
+     */
+    int getRetryCount()
+    {
+        return m_retryCount;
+    }
+
+    /**
+     * Gets the value.
+     *
+     * @return the value
+     */
+    boolean isAdaptive()
+    {
+        return m_adaptive;
+    }
+
+    /**
+     * Gets the query engine. Replaying always uses the HTTP engine, as
+     * the archive holds the pages fetched by it.
+     *
+     * @return the value
+     */
+    Engine getEngine()
+    {
+        return m_replayFile != null ? Engine.HTTP : m_engine;
+    }
+
+    /**
+     * Gets the value.
+     *
+     * @return the value
+     */
+    Search getSearch()
+    {
+        return m_search;
+    }
+
+    /**
+     * Gets the value.
+     *
+     * @return the value
+     */
+    boolean isHeadless()
+    {
+        return m_headless;
+    }
+
+    /**
+     * Gets the value.
+     *
+     * @return the value or null
+     */
+    File getProfileDir()
+    {
+        return m_profileDir;
+    }
+
+    /**
+     * Gets the value.
+     *
+     * @return the value or null if the browsers are started locally
+     */
+    URL getRemoteUrl()
+    {
+        return m_remoteUrl;
+    }
+
+    /**
+     * Gets the branches whose holdings are checked. The first branch
+     * gives the status of the book.
+     *
+     * @return the value
+     */
+    List<String> getBranches()
+    {
+        return m_listBranches;
+    }
+
+    /**
+     * Gets the value.
+     *
+     * @return the value
+     */
+    String getLibraryUrl()
+    {
+        return m_libraryUrl;
+    }
+
+    /**
+     * Gets the value.
+     *
+     * @return the value or null
+     */
+    File getCacheFile()
+    {
+        return m_cacheFile;
+    }
+
+    /**
+     * Gets the value.
+     *
+     * @return the value or null
+     */
+    File getRecordCacheFile()
+    {
+        return m_recordCacheFile;
+    }
+
+    /**
+     * Gets the value.
+     *
+     * @return the value or null
+     */
+    File getMirrorFile()
+    {
+        return m_mirrorFile;
+    }
+
+    /**
+     * Gets the journal file. Defaults to the book list filename with
+     * .journal suffix.
+     *
+     * @return the value
+     */
+    File getJournalFile()
+    {
+        return m_journalFile != null ? m_journalFile : new File(m_filename + ".journal");
+    }
+
+    /**
+     * Gets the value.
+     *
+     * @return the value
+     */
+    boolean isResume()
+    {
+        return m_resume;
+    }
+
+    /**
+     * Gets the value.
+     *
+     * @return the value
+     */
+    boolean isBatch()
+    {
+        return m_batch;
+    }
+
+    /**
+     * Gets the value.
+     *
+     * @return the value
+     */
+    boolean isWatch()
+    {
+        return m_watch;
+    }
+
+    /**
+     * Gets the value.
+     *
+     * @return the value
+     */
+    int getHourlyBudget()
+    {
+        return m_hourlyBudget;
+    }
+
+    /**
+     * Gets the value.
+     *
+     * @return the value or 0 if the whole list is checked
+     */
+    int getTarget()
+    {
+        return m_target;
+    }
+
+    /**
+     * Gets the value.
+     *
+     * @return the prefixes, empty if not restricted
+     */
+    List<String> getShelfPrefixes()
+    {
+        return m_listShelfPrefixes;
+    }
+
+    /**
+     * Gets the value.
+     *
+     * @return the value or 0 if not in the server mode
+     */
+    int getServerPort()
+    {
+        return m_serverPort;
+    }
+
+    /**
+     * Gets the metrics export file. The format is CSV if the name ends
+     * with .csv, JSON otherwise.
+     *
+     * @return the value or null
+     */
+    File getMetricsFile()
+    {
+        return m_metricsFile;
+    }
+
+    /**
+     * Gets the result stream file. The format is CSV if the name ends
+     * with .csv, JSON Lines otherwise.
+     *
+     * @return the value or null
+     */
+    File getOutputFile()
+    {
+        return m_outputFile;
+    }
+
+    /**
+     * Gets the value.
+     *
+     * @return the value or null
+     */
+    File getStatusFile()
+    {
+        return m_statusFile;
+    }
+
+    /**
+     * Gets the export file of the changes since the previous run. The
+     * format is CSV if the name ends with .csv, JSON otherwise.
+     *
+     * @return the value or null
+     */
+    File getChangesFile()
+    {
+        return m_changesFile;
+    }
+
+    /**
+     * Gets the value.
+     *
+     * @return the value or null
+     */
+    File getRecordFile()
+    {
+        return m_recordFile;
+    }
+
+    /**
+     * Gets the value.
+     *
+     * @return the value or null
+     */
+    File getReplayFile()
+    {
+        return m_replayFile;
+    }
+
+    /**
+     * Gets the value of an option.
+     *
+     * @param args   command line parameters
+     * @param index  index of the value
+     * @param option option name for error messages
+     * @return the value
+     */
+    private static String getValue(String[] args,
+                                   int      index,
+                                   String   option)
+    {
+        if (index >= args.length)
+        {
+            throw new IllegalArgumentException("Missing value for " + option);
+        }
+        return args[index];
+    }
+
+    /**
+     * Parses a positive integer option value.
+     *
+     * @param option option name for error messages
+     * @param value  the value
+     * @return parsed value
+     */
+    private static int parsePositive(String option,
+                                     String value)
+    {
+        return parseNumber(option,
+                           value,
+                           1);
+    }
+
+    /**
+     * Parses an integer option value.
+     *
+     * @param option  option name for error messages
+     * @param value   the value
+     * @param minimum smallest valid value
+     * @return parsed value
+     */
+    private static int parseNumber(String option,
+                                   String value,
+                                   int    minimum)
+    {
+        try
+        {
+            int number = Integer.parseInt(value);
+            if (number >= minimum)
+            {
+                return number;
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            // reported below
+        }
+        throw new IllegalArgumentException("Invalid value for " + option + ": " + value);
+    }
+
+    /**
+     * Parses a url option value.
+     *
+     * @param option option name for error messages
+     * @param value  the value
+     * @return parsed value
+     */
+    private static URL parseUrl(String option,
+                                String value)
+    {
+        try
+        {
+            return new URL(value);
+        }
+        catch (MalformedURLException e)
+        {
+            throw new IllegalArgumentException("Invalid value for " + option + ": " + value);
+        }
+    }
+
+    /**
+     * Parses a comma separated option value.
+     *
+     * @param option option name for error messages
+     * @param value  the value
+     * @return non-empty items
+     */
+    private static List<String> parseList(String option,
+                                          String value)
+    {
+        List<String> listItems = new ArrayList<String>();
+        for (String item : value.split(","))
+        {
+            if (item.trim().length() > 0)
+            {
+                listItems.add(item.trim());
+            }
+        }
+        if (listItems.isEmpty())
+        {
+            throw new IllegalArgumentException("Invalid value for " + option + ": " + value);
+        }
+        return listItems;
+    }
+
+    /**
+     * Parses a query engine option value.
+     *
+     * @param option option name for error messages
+     * @param value  the value
+     * @return parsed value
+     */
+    private static Engine parseEngine(String option,
+                                      String value)
+    {
+        for (Engine engine : Engine.values())
+        {
+            if (engine.name().equalsIgnoreCase(value))
+            {
+                return engine;
+            }
+        }
+        throw new IllegalArgumentException("Invalid value for " + option + ": " + value);
+    }
+
+    /**
+     * Parses a search path option value.
+     *
+     * @param option option name for error messages
+     * @param value  the value
+     * @return parsed value
+     */
+    private static Search parseSearch(String option,
+                                      String value)
+    {
+        for (Search search : Search.values())
+        {
+            if (search.name().equalsIgnoreCase(value))
+            {
+                return search;
+            }
+        }
+        throw new IllegalArgumentException("Invalid value for " + option + ": " + value);
+    }
+}
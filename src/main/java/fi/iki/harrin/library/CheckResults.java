@@ -0,0 +1,195 @@
+package fi.iki.harrin.library;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the results of one check run. Books are added while the book
+ * list is being read and workers may complete them in any order, but the
+ * result lists are always returned in the order of the book list so that
+ * the output can be diffed against earlier runs.
+ *
+ * @author $Author: $
+ */
+class CheckResults
+{
+    /** Books by index in the book list */
+    private final List<BookInfo> m_listBooks = new ArrayList<BookInfo>();
+    /** Status of each book by index, null if not checked yet */
+    private final List<BookStatus> m_listStatuses = new ArrayList<BookStatus>();
+    /** Whether each book by index was queried in this run */
+    private final List<Boolean> m_listQueried = new ArrayList<Boolean>();
+    /** Number of books in each status */
+    private final int[] m_counts = new int[BookStatus.values().length];
+    /** Number of checked books */
+    private int m_completedCount = 0;
+    /** True when the whole book list has been added */
+    private boolean m_listComplete = false;
+
+    /**
+     * Adds a book read from the book list.
+     *
+     * @param book the book, its index must be the next index
+     */
+    synchronized void addBook(BookInfo book)
+    {
+        if (book.getIndex() != m_listBooks.size())
+        {
+            throw new IllegalArgumentException("Book " + book + " added out of order");
+        }
+        m_listBooks.add(book);
+        m_listStatuses.add(null);
+        m_listQueried.add(Boolean.FALSE);
+    }
+
+    /**
+     * Marks the whole book list added.
+     */
+    synchronized void setListComplete()
+    {
+        m_listComplete = true;
+    }
+
+    /**
+     * Checks whether the whole book list has been added.
+     *
+     * @return the value
+     */
+    synchronized boolean isListComplete()
+    {
+        return m_listComplete;
+    }
+
+    /**
+     * Stores the result of one book.
+     *
+     * @param book   checked book
+     * @param status result of the check
+     */
+    synchronized void setResult(BookInfo   book,
+                                BookStatus status)
+    {
+        int index = book.getIndex();
+        BookStatus previousStatus = m_listStatuses.get(index);
+        if (previousStatus != null)
+        {
+            m_counts[previousStatus.ordinal()]--;
+            m_completedCount--;
+        }
+
+        m_listStatuses.set(index, status);
+        m_counts[status.ordinal()]++;
+        m_completedCount++;
+    }
+
+    /**
+     * Marks the result of a book queried in this run instead of read
+     * from the journal or the cache.
+     *
+     * @param book checked book
+     */
+    synchronized void setQueried(BookInfo book)
+    {
+        m_listQueried.set(book.getIndex(), Boolean.TRUE);
+    }
+
+    /**
+     * Checks whether the result of a book was queried in this run.
+     *
+     * @param book the book
+     * @return the value
+     */
+    synchronized boolean isQueried(BookInfo book)
+    {
+        return m_listQueried.get(book.getIndex());
+    }
+
+    /**
+     * Gets the books that have not been checked.
+     *
+     * @return books in book list order
+     */
+    synchronized List<BookInfo> getUncheckedBooks()
+    {
+        List<BookInfo> listBooks = new ArrayList<BookInfo>();
+        for (int i = 0; i < m_listStatuses.size(); i++)
+        {
+            if (m_listStatuses.get(i) == null)
+            {
+                listBooks.add(m_listBooks.get(i));
+            }
+        }
+        return listBooks;
+    }
+
+    /**
+     * Gets the number of books added so far.
+     *
+     * @return the value
+     */
+    synchronized int getBookCount()
+    {
+        return m_listBooks.size();
+    }
+
+    /**
+     * Gets the number of checked books.
+     *
+     * @return the value
+     */
+    synchronized int getCompletedCount()
+    {
+        return m_completedCount;
+    }
+
+    /**
+     * Gets the number of books in the given status.
+     *
+     * @param status the status
+     * @return the value
+     */
+    synchronized int getCount(BookStatus status)
+    {
+        return m_counts[status.ordinal()];
+    }
+
+    /**
+     * Gets all books in book list order.
+     *
+     * @return the books
+     */
+    synchronized List<BookInfo> getBooks()
+    {
+        return new ArrayList<BookInfo>(m_listBooks);
+    }
+
+    /**
+     * Gets the result of a book.
+     *
+     * @param book the book
+     * @return result or null if not checked
+     */
+    synchronized BookStatus getStatus(BookInfo book)
+    {
+        return m_listStatuses.get(book.getIndex());
+    }
+
+    /**
+     * Gets the books in the given status in book list order.
+     *
+     * @param status the status
+     * @return books in the status
+     */
+    synchronized List<BookInfo> getBooks(BookStatus status)
+    {
+        List<BookInfo> listBooks = new ArrayList<BookInfo>();
+        for (int i = 0; i < m_listStatuses.size(); i++)
+        {
+            if (m_listStatuses.get(i) == status)
+            {
+                listBooks.add(m_listBooks.get(i));
+            }
+        }
+        return listBooks;
+    }
+}
@@ -0,0 +1,538 @@
+package fi.iki.harrin.library;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local HTTP server checking the book lists of several users with one
+ * shared pool of query engines. A book submitted while the same book of
+ * another list is being queried is not queried again, but gets the
+ * result of the running query.
+ *
+ * API, all responses are JSON:
+ * POST /lists       submits a book list in the book list file format,
+ *                   returns the id of the list
+ * GET  /lists/{id}  returns the progress and the results of a list
+ * GET  /stats       returns the numbers of submitted and queried books
+ *
+ * Only the latest lists are kept.
+ *
+ * @author $Author: $
+ */
+class CheckServer
+{
+    /** Maximum number of kept lists */
+    private static final int MAX_LISTS = 100;
+    /** Path of the lists */
+    private static final String LISTS_PATH = "/lists";
+    /** Path of the statistics */
+    private static final String STATS_PATH = "/stats";
+
+    /** Command line options */
+    private final CheckOptions m_options;
+    /** Creates the query engines */
+    private final CheckLibrary m_library;
+    /** The server */
+    private final HttpServer m_server;
+    /** Runs the request handlers */
+    private final ExecutorService m_handlerExecutor = Executors.newCachedThreadPool();
+    /** Runs the workers */
+    private final ExecutorService m_workerExecutor;
+    /** Lookups waiting for a worker */
+    private final BlockingQueue<Lookup> m_queue = new LinkedBlockingQueue<Lookup>();
+    /** Queued and running lookups by book key, guarded by this */
+    private final Map<String, Lookup> m_lookups = new HashMap<String, Lookup>();
+    /** Submitted lists by id, guarded by this */
+    private final Map<Integer, CheckResults> m_lists =
+        new LinkedHashMap<Integer, CheckResults>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, CheckResults> eldest) {
+                return size() > MAX_LISTS;
+            }
+        };
+    /** Id of the next list */
+    private int m_nextId = 1;
+    /** Number of submitted books */
+    private int m_submittedCount = 0;
+    /** Number of books sharing the query of another book */
+    private int m_coalescedCount = 0;
+    /** Number of queries made */
+    private int m_queryCount = 0;
+
+    /**
+     * Constructor for CheckServer.
+     *
+     * @param options command line options
+     * @throws IOException if binding the port fails
+     */
+    CheckServer(CheckOptions options)
+        throws IOException
+    {
+        m_options = options;
+        m_library = new CheckLibrary(options);
+        m_workerExecutor = Executors.newFixedThreadPool(options.getWorkerCount());
+
+        m_server = HttpServer.create(new InetSocketAddress("localhost", options.getServerPort()), 0);
+        m_server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        });
+        m_server.setExecutor(m_handlerExecutor);
+    }
+
+    /**
+     * Starts the workers and serving requests. Pooled browser sessions
+     * are quit when the server is stopped.
+     */
+    void start()
+    {
+        m_library.openSessionPool();
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                m_library.closeSessionPool();
+            }
+        });
+
+        for (int i = 0; i < m_options.getWorkerCount(); i++)
+        {
+            m_workerExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    runWorker();
+                }
+            });
+        }
+        m_server.start();
+        System.out.println("Serving at http://localhost:" + m_server.getAddress().getPort() + LISTS_PATH);
+    }
+
+    /**
+     * Submits a book list.
+     *
+     * @param content book list in the book list file format
+     * @param listErrors receives the malformed records
+     * @return id of the list
+     * @throws IOException if reading the list fails
+     */
+    int submit(String       content,
+               List<String> listErrors)
+        throws IOException
+    {
+        List<BookInfo> listBooks = new ArrayList<BookInfo>();
+        BookListReader reader = new BookListReader("list",
+                                                   new StringReader(content));
+        try
+        {
+            while (true)
+            {
+                BookInfo book;
+                try
+                {
+                    book = reader.readBook();
+                }
+                catch (BookListException e)
+                {
+                    listErrors.add(e.getMessage());
+                    continue;
+                }
+                if (book == null)
+                {
+                    break;
+                }
+                listBooks.add(book);
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+
+        CheckResults results = new CheckResults();
+        for (BookInfo book : listBooks)
+        {
+            results.addBook(book);
+        }
+        results.setListComplete();
+
+        synchronized (this)
+        {
+            int id = m_nextId++;
+            m_lists.put(id, results);
+            for (BookInfo book : listBooks)
+            {
+                m_submittedCount++;
+                Lookup lookup = m_lookups.get(book.getKey());
+                if (lookup != null)
+                {
+                    m_coalescedCount++;
+                }
+                else
+                {
+                    lookup = new Lookup(book.getCopy());
+                    m_lookups.put(book.getKey(), lookup);
+                    m_queue.add(lookup);
+                }
+                lookup.m_listWaiters.add(new Waiter(results, book));
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Queries the lookups of the queue with an own query engine. A
+     * transient failure is retried at once, a dead session is replaced.
+     * A lookup is always completed, as FAILED if the engine cannot be
+     * created, and the worker keeps running.
+     */
+    private void runWorker()
+    {
+        QueryEngine engine = null;
+        try
+        {
+            while (true)
+            {
+                Lookup lookup = m_queue.take();
+                BookStatus status = BookStatus.FAILED;
+                try
+                {
+                    for (int attempt = 0; attempt <= m_options.getRetryCount(); attempt++)
+                    {
+                        try
+                        {
+                            if (engine == null)
+                            {
+                                engine = m_library.createEngine();
+                            }
+                            synchronized (this)
+                            {
+                                m_queryCount++;
+                            }
+                            status = engine.query(lookup.m_book);
+                            System.out.println(status.getLabel() + ": " + lookup.m_book);
+                            break;
+                        }
+                        catch (InterruptedException e)
+                        {
+                            throw e;
+                        }
+                        catch (Exception e)
+                        {
+                            FailureType failure = FailureType.classify(e);
+                            System.out.println("ERROR (" + failure.getLabel() + "): " + lookup.m_book);
+                            System.out.println(e.toString());
+                            if (failure == FailureType.DEAD_SESSION
+                                    && engine != null)
+                            {
+                                // created again for the next attempt
+                                closeEngine(engine);
+                                engine = null;
+                            }
+                            if (!failure.isTransient())
+                            {
+                                break;
+                            }
+                        }
+                    }
+                }
+                finally
+                {
+                    complete(lookup, status);
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            // server stopped
+        }
+        finally
+        {
+            if (engine != null)
+            {
+                closeEngine(engine);
+            }
+        }
+    }
+
+    /**
+     * Closes a query engine. A dead browser session may fail to close,
+     * which is ignored.
+     *
+     * @param engine the engine
+     */
+    private static void closeEngine(QueryEngine engine)
+    {
+        try
+        {
+            engine.close();
+        }
+        catch (RuntimeException e)
+        {
+            // the session is gone anyway
+        }
+    }
+
+    /**
+     * Gives the result of a lookup to every book waiting for it.
+     *
+     * @param lookup the lookup
+     * @param status result of the query
+     */
+    private void complete(Lookup     lookup,
+                          BookStatus status)
+    {
+        List<Waiter> listWaiters;
+        synchronized (this)
+        {
+            m_lookups.remove(lookup.m_book.getKey());
+            listWaiters = lookup.m_listWaiters;
+        }
+
+        for (Waiter waiter : listWaiters)
+        {
+            waiter.m_book.setSearchResult(lookup.m_book);
+            waiter.m_results.setResult(waiter.m_book, status);
+        }
+    }
+
+    /**
+     * Serves one request.
+     *
+     * @param exchange the request
+     * @throws IOException if writing the response fails
+     */
+    private void serve(HttpExchange exchange)
+        throws IOException
+    {
+        try
+        {
+            String path = exchange.getRequestURI().getPath();
+            String method = exchange.getRequestMethod();
+            if (path.equals(LISTS_PATH) && method.equals("POST"))
+            {
+                List<String> listErrors = new ArrayList<String>();
+                int id = submit(new String(readBody(exchange), "UTF-8"),
+                                listErrors);
+                StringBuilder errors = new StringBuilder();
+                for (String error : listErrors)
+                {
+                    errors.append(errors.length() > 0 ? ", " : "").append(MetricsExport.quoteJson(error));
+                }
+                sendJson(exchange,
+                         202,
+                         "{\"id\": " + id + ", \"errors\": [" + errors + "]}");
+            }
+            else if (path.startsWith(LISTS_PATH + "/") && method.equals("GET"))
+            {
+                CheckResults results;
+                try
+                {
+                    synchronized (this)
+                    {
+                        results = m_lists.get(Integer.valueOf(path.substring(LISTS_PATH.length() + 1)));
+                    }
+                }
+                catch (NumberFormatException e)
+                {
+                    results = null;
+                }
+
+                if (results == null)
+                {
+                    sendJson(exchange, 404, "{\"error\": \"unknown list\"}");
+                }
+                else
+                {
+                    sendJson(exchange, 200, formatResults(results));
+                }
+            }
+            else if (path.equals(STATS_PATH) && method.equals("GET"))
+            {
+                String stats;
+                synchronized (this)
+                {
+                    stats = "{\"submitted\": " + m_submittedCount
+                            + ", \"coalesced\": " + m_coalescedCount
+                            + ", \"queries\": " + m_queryCount
+                            + ", \"queued\": " + m_queue.size()
+                            + ", \"running\": " + (m_lookups.size() - m_queue.size()) + "}";
+                }
+                sendJson(exchange, 200, stats);
+            }
+            else
+            {
+                sendJson(exchange, 404, "{\"error\": \"not found\"}");
+            }
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Formats the progress and the results of a list.
+     *
+     * @param results results of the list
+     * @return JSON object
+     */
+    private String formatResults(CheckResults results)
+    {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"books\": ").append(results.getBookCount())
+            .append(", \"completed\": ").append(results.getCompletedCount())
+            .append(", \"done\": ").append(results.getCompletedCount() == results.getBookCount())
+            .append(", \"counts\": {");
+        for (BookStatus status : BookStatus.values())
+        {
+            json.append(status.ordinal() > 0 ? ", " : "")
+                .append(MetricsExport.quoteJson(status.name())).append(": ").append(results.getCount(status));
+        }
+        json.append("},\n \"results\": [");
+
+        String separator = "\n";
+        for (BookInfo book : results.getBooks())
+        {
+            BookStatus status = results.getStatus(book);
+            json.append(separator)
+                .append("  {\"author\": ").append(MetricsExport.quoteJson(book.getAuthor()))
+                .append(", \"title\": ").append(MetricsExport.quoteJson(book.getTitle()
+                                                                        + (book.getColonTitlePart() != null ? ":" + book.getColonTitlePart() : "")))
+                .append(", \"shelf\": ").append(MetricsExport.quoteJson(book.getShelfNumber()))
+                .append(", \"status\": ").append(status != null ? MetricsExport.quoteJson(status.name()) : "null")
+                .append(", \"location\": ").append(MetricsExport.quoteJson(book.getRealLocation()));
+            if (book.hasBranchHoldings())
+            {
+                json.append(", \"branches\": {");
+                String branchSeparator = "";
+                for (String branch : m_options.getBranches())
+                {
+                    Holdings holdings = book.getBranchHoldings(branch);
+                    json.append(branchSeparator)
+                        .append(MetricsExport.quoteJson(branch)).append(": ")
+                        .append(holdings != null ? MetricsExport.quoteJson(holdings.getStatus().name()) : "null");
+                    branchSeparator = ", ";
+                }
+                json.append("}");
+            }
+            json.append("}");
+            separator = ",\n";
+        }
+        return json.append(separator.equals("\n") ? "]}\n" : "\n ]}\n").toString();
+    }
+
+    /**
+     * Reads the request body.
+     *
+     * @param exchange the request
+     * @return the body
+     * @throws IOException if reading fails
+     */
+    private static byte[] readBody(HttpExchange exchange)
+        throws IOException
+    {
+        InputStream input = exchange.getRequestBody();
+        try
+        {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = input.read(buffer)) > 0)
+            {
+                body.write(buffer, 0, count);
+            }
+            return body.toByteArray();
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    /**
+     * Sends a JSON response.
+     *
+     * @param exchange the request
+     * @param code     HTTP status code
+     * @param json     response content
+     * @throws IOException if writing fails
+     */
+    private static void sendJson(HttpExchange exchange,
+                                 int          code,
+                                 String       json)
+        throws IOException
+    {
+        byte[] content = json.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(code, content.length);
+        OutputStream output = exchange.getResponseBody();
+        output.write(content);
+        output.close();
+    }
+
+    /**
+     * Query of one book shared by the submitted books with the same key.
+     */
+    private static final class Lookup
+    {
+        /** Queried copy of the first submitted book */
+        private final BookInfo m_book;
+        /** Submitted books waiting for the result */
+        private final List<Waiter> m_listWaiters = new ArrayList<Waiter>();
+
+        /**
+         * Constructor for Lookup.
+         *
+         * @param book queried copy of the book
+         */
+        Lookup(BookInfo book)
+        {
+            m_book = book;
+        }
+    }
+
+    /**
+     * Submitted book waiting for the result of a lookup.
+     */
+    private static final class Waiter
+    {
+        /** Results of the list of the book */
+        private final CheckResults m_results;
+        /** The book */
+        private final BookInfo m_book;
+
+        /**
+         * Constructor for Waiter.
+         *
+         * @param results results of the list of the book
+         * @param book    the book
+         */
+        Waiter(CheckResults results,
+               BookInfo     book)
+        {
+            m_results = results;
+            m_book = book;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package fi.iki.harrin.library;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+
+import org.openqa.selenium.NoSuchSessionException;
+import org.openqa.selenium.NotFoundException;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.remote.UnreachableBrowserException;
+
+/**
+ * Classification of a failed query. Transient failures are retried,
+ * a dead session also needs a new query engine.
+ *
+ * @author $Author: $
+ */
+enum FailureType
+{
+    /** Page or request did not complete in time */
+    TIMEOUT("timeout", true),
+    /** Expected page element was not found */
+    MISSING_ELEMENT("missing element", true),
+    /** Browser session is gone */
+    DEAD_SESSION("dead session", true),
+    /** Request to the library server failed */
+    NETWORK("network", true),
+    /** Anything else, e.g. unexpected page content */
+    OTHER("other", false);
+
+    /** Messages of driver errors telling that the browser is gone */
+    private static final String[] DEAD_SESSION_MESSAGES = {
+        "chrome not reachable",
+        "session deleted",
+        "disconnected",
+        "no such window",
+        "target window already closed",
+    };
+
+    /** Name used in the output */
+    private final String m_label;
+    /** Whether the query is retried */
+    private final boolean m_transient;
+
+    /**
+     * Constructor for FailureType.
+     *
+     * @param label   name used in the output
+     * @param retried whether the query is retried
+     */
+    private FailureType(String  label,
+                        boolean retried)
+    {
+        m_label = label;
+        m_transient = retried;
+    }
+
+    /**
+     * Classifies the exception of a failed query.
+     *
+     * @param e the exception
+     * @return the failure type
+     */
+    static FailureType classify(Exception e)
+    {
+        if (e instanceof TimeoutException
+                || e instanceof SocketTimeoutException)
+        {
+            return TIMEOUT;
+        }
+        if (e instanceof NotFoundException
+                || e instanceof StaleElementReferenceException)
+        {
+            return MISSING_ELEMENT;
+        }
+        if (e instanceof NoSuchSessionException
+                || e instanceof UnreachableBrowserException)
+        {
+            return DEAD_SESSION;
+        }
+        if (e instanceof WebDriverException)
+        {
+            String message = String.valueOf(e.getMessage()).toLowerCase();
+            for (String deadMessage : DEAD_SESSION_MESSAGES)
+            {
+                if (message.contains(deadMessage))
+                {
+                    return DEAD_SESSION;
+                }
+            }
+            return OTHER;
+        }
+        if (e instanceof IOException)
+        {
+            return NETWORK;
+        }
+        return OTHER;
+    }
+
+    /**
+     * Gets the name used in the output.
+     *
+     * @return the label
+     */
+    String getLabel()
+    {
+        return m_label;
+    }
+
+    /**
+     * Checks whether the query is retried.
+     *
+     * @return the value
+     */
+    boolean isTransient()
+    {
+        return m_transient;
+    }
+}
@@ -0,0 +1,168 @@
+package fi.iki.harrin.library;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Streams the results to a file with one record per book. The format is
+ * selected by the file suffix: .csv writes CSV rows, anything else JSON
+ * Lines. Records are formatted by the worker and written by an own
+ * thread, so that a slow disk does not stop the workers. The file is
+ * flushed whenever the pending records have been written, so that
+ * partial results can be read during the run.
+ *
+ * @author $Author: $
+ */
+class FileResultSink implements ResultSink
+{
+    /** Column names of the CSV format */
+    private static final String CSV_HEADER =
+        "time,section,author,title,shelf,status,location,queued,in_store,source,query_ms";
+    /** Marks the end of the records */
+    private static final String END = new String("");
+
+    /** Write CSV instead of JSON Lines */
+    private final boolean m_csv;
+    /** Formatted records waiting to be written */
+    private final BlockingQueue<String> m_queue = new LinkedBlockingQueue<String>();
+    /** Writes the records */
+    private final Thread m_writerThread;
+    /** Output file */
+    private final Writer m_writer;
+    /** First write error or null */
+    private volatile IOException m_error = null;
+
+    /**
+     * Constructor for FileResultSink. Starts writing a new file.
+     *
+     * @param file output file
+     * @throws IOException if the file cannot be created
+     */
+    FileResultSink(File file)
+        throws IOException
+    {
+        m_csv = file.getName().toLowerCase().endsWith(".csv");
+        m_writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        if (m_csv)
+        {
+            m_queue.add(CSV_HEADER);
+        }
+
+        m_writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeRecords();
+            }
+        }, "result-sink");
+        m_writerThread.setDaemon(true);
+        m_writerThread.start();
+    }
+
+    @Override
+    public void write(BookInfo   book,
+                      BookStatus status,
+                      String     source,
+                      long       queryTime)
+    {
+        String title = book.getTitle()
+            + (book.getColonTitlePart() != null ? ":" + book.getColonTitlePart() : "");
+        String time = ChangeExport.formatTime(System.currentTimeMillis());
+        if (m_csv)
+        {
+            m_queue.add(time + ","
+                        + MetricsExport.quoteCsv(book.getSection()) + ","
+                        + MetricsExport.quoteCsv(book.getAuthor()) + ","
+                        + MetricsExport.quoteCsv(title) + ","
+                        + MetricsExport.quoteCsv(book.getShelfNumber()) + ","
+                        + status.name() + ","
+                        + MetricsExport.quoteCsv(book.getRealLocation()) + ","
+                        + book.isQueued() + ","
+                        + book.isPossiblyInStore() + ","
+                        + MetricsExport.quoteCsv(source) + ","
+                        + queryTime);
+        }
+        else
+        {
+            m_queue.add("{\"time\": " + MetricsExport.quoteJson(time)
+                        + ", \"section\": " + MetricsExport.quoteJson(book.getSection())
+                        + ", \"author\": " + MetricsExport.quoteJson(book.getAuthor())
+                        + ", \"title\": " + MetricsExport.quoteJson(title)
+                        + ", \"shelf\": " + MetricsExport.quoteJson(book.getShelfNumber())
+                        + ", \"status\": " + MetricsExport.quoteJson(status.name())
+                        + ", \"location\": " + MetricsExport.quoteJson(book.getRealLocation())
+                        + ", \"queued\": " + book.isQueued()
+                        + ", \"in_store\": " + book.isPossiblyInStore()
+                        + ", \"source\": " + MetricsExport.quoteJson(source)
+                        + ", \"query_ms\": " + queryTime + "}");
+        }
+    }
+
+    @Override
+    public void close()
+        throws IOException
+    {
+        m_queue.add(END);
+        try
+        {
+            m_writerThread.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        if (m_error != null)
+        {
+            throw m_error;
+        }
+    }
+
+    /**
+     * Writes the queued records until the end mark.
+     */
+    private void writeRecords()
+    {
+        List<String> listRecords = new ArrayList<String>();
+        try
+        {
+            try
+            {
+                while (true)
+                {
+                    listRecords.add(m_queue.take());
+                    m_queue.drainTo(listRecords);
+                    for (String record : listRecords)
+                    {
+                        if (record == END)
+                        {
+                            return;
+                        }
+                        m_writer.write(record);
+                        m_writer.write('\n');
+                    }
+                    listRecords.clear();
+                    m_writer.flush();
+                }
+            }
+            finally
+            {
+                m_writer.close();
+            }
+        }
+        catch (IOException e)
+        {
+            m_error = e;
+        }
+        catch (InterruptedException e)
+        {
+            // stopped with the application
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package fi.iki.harrin.library;
+
+/**
+ * Holdings of one library branch as shown on the Arena record page.
+ * Values are the texts of the holdings table cells, null if the cell
+ * is not shown.
+ *
+ * @author $Author: $
+ */
+class Holdings
+{
+    /** Number of copies available for loan */
+    private final String m_availableForLoan;
+    /** Number of copies checked out */
+    private final String m_checkedOut;
+    /** Number of copies ordered */
+    private final String m_ordered;
+    /** Shelf mark of the copies */
+    private final String m_shelfMark;
+
+    /**
+     * Constructor for Holdings.
+     *
+     * @param availableForLoan number of copies available for loan
+     * @param checkedOut       number of copies checked out
+     * @param ordered          number of copies ordered
+     * @param shelfMark        shelf mark of the copies
+     */
+    Holdings(String availableForLoan,
+             String checkedOut,
+             String ordered,
+             String shelfMark)
+    {
+        m_availableForLoan = availableForLoan;
+        m_checkedOut = checkedOut;
+        m_ordered = ordered;
+        m_shelfMark = shelfMark;
+    }
+
+    /**
+     * Gets the value.
+     *
+     * @return the value
+     */
+    String getShelfMark()
+    {
+        return m_shelfMark;
+    }
+
+    /**
+     * Classifies the availability. Available count wins; without it the
+     * book is not available if copies are checked out and ordered if
+     * copies are being acquired.
+     *
+     * @return status of the book
+     */
+    BookStatus getStatus()
+    {
+        if (m_availableForLoan == null)
+        {
+            if (m_checkedOut != null)
+            {
+                return BookStatus.NOT_AVAILABLE;
+            }
+
+            if (m_ordered != null)
+            {
+                return BookStatus.ORDERED;
+            }
+
+            return BookStatus.NOT_FOUND;
+        }
+
+        int availableCount = Integer.parseInt(m_availableForLoan.trim());
+        return availableCount > 0 ? BookStatus.AVAILABLE : BookStatus.NOT_AVAILABLE;
+    }
+}
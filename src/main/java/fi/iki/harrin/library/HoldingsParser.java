@@ -0,0 +1,180 @@
+package fi.iki.harrin.library;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads branch holdings from the markup of an Arena record page or of the
+ * AJAX response expanding the branch.
+ *
+ * @author $Author: $
+ */
+final class HoldingsParser
+{
+    /** Class of the container following the branch name */
+    private static final String CHILD_CONTAINER = "arena-holding-child-hyper-container";
+    /** Class of the copies available cell */
+    private static final String AVAILABLE_CELL = "arena-holding-nof-available-for-loan";
+    /** Class of the copies checked out cell */
+    private static final String CHECKED_OUT_CELL = "arena-holding-nof-checked-out";
+    /** Class of the copies ordered cell */
+    private static final String ORDERED_CELL = "arena-holding-nof-ordered";
+    /** Class of the shelf mark cell */
+    private static final String SHELF_MARK_CELL = "arena-holding-shelf-mark";
+
+    /** Matches a holdings cell, group 1 is the class, group 2 the content */
+    private static final Pattern CELL_PATTERN =
+        Pattern.compile("<td[^>]*class=[\"'](arena-holding-[\\w-]+)[\"'][^>]*>(.*?)</td>",
+                        Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    /** Matches the value span of a cell */
+    private static final Pattern VALUE_PATTERN =
+        Pattern.compile("<span[^>]*class=[\"']arena-value[\"'][^>]*>(.*?)</span>",
+                        Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    /** Compiled branch name patterns by branch name */
+    private static final ConcurrentMap<String, Pattern> BRANCH_PATTERNS =
+        new ConcurrentHashMap<String, Pattern>();
+
+    /**
+     * Constructor for HoldingsParser.
+     */
+    private HoldingsParser()
+    {
+    }
+
+    /**
+     * Parses the holdings of a branch.
+     *
+     * @param html   the markup
+     * @param branch branch name
+     * @return holdings or null if the branch is not expanded in the markup
+     */
+    static Holdings parse(String html,
+                          String branch)
+    {
+        return parseBranch(ArenaHtml.decodeLetters(html),
+                           branch);
+    }
+
+    /**
+     * Parses the holdings of several branches from the same markup.
+     *
+     * @param html         the markup
+     * @param listBranches branch names
+     * @return holdings by branch name in the given order, null values for
+     *         branches not expanded in the markup
+     */
+    static Map<String, Holdings> parse(String       html,
+                                       List<String> listBranches)
+    {
+        html = ArenaHtml.decodeLetters(html);
+
+        Map<String, Holdings> mapHoldings = new LinkedHashMap<String, Holdings>();
+        for (String branch : listBranches)
+        {
+            mapHoldings.put(branch,
+                            parseBranch(html,
+                                        branch));
+        }
+        return mapHoldings;
+    }
+
+    /**
+     * Parses the holdings of a branch from decoded markup.
+     *
+     * @param html   the markup with letters decoded
+     * @param branch branch name
+     * @return holdings or null if the branch is not expanded in the markup
+     */
+    private static Holdings parseBranch(String html,
+                                        String branch)
+    {
+        Matcher branchMatcher = getBranchPattern(branch).matcher(html);
+        if (!branchMatcher.find())
+        {
+            return null;
+        }
+
+        int start = html.indexOf(CHILD_CONTAINER, branchMatcher.end());
+        if (start == -1)
+        {
+            return null;
+        }
+        int end = html.indexOf(CHILD_CONTAINER, start + CHILD_CONTAINER.length());
+
+        String availableForLoan = null;
+        String checkedOut = null;
+        String ordered = null;
+        String shelfMark = null;
+
+        Matcher cellMatcher = CELL_PATTERN.matcher(html);
+        cellMatcher.region(start, end == -1 ? html.length() : end);
+        while (cellMatcher.find())
+        {
+            String cellClass = cellMatcher.group(1);
+            if (availableForLoan == null
+                    && cellClass.equals(AVAILABLE_CELL))
+            {
+                availableForLoan = getValue(cellMatcher.group(2));
+            }
+            else if (checkedOut == null
+                    && cellClass.equals(CHECKED_OUT_CELL))
+            {
+                checkedOut = getValue(cellMatcher.group(2));
+            }
+            else if (ordered == null
+                    && cellClass.equals(ORDERED_CELL))
+            {
+                ordered = getValue(cellMatcher.group(2));
+            }
+            else if (shelfMark == null
+                    && cellClass.equals(SHELF_MARK_CELL))
+            {
+                shelfMark = getValue(cellMatcher.group(2));
+            }
+        }
+
+        return new Holdings(availableForLoan,
+                            checkedOut,
+                            ordered,
+                            shelfMark);
+    }
+
+    /**
+     * Gets the compiled pattern matching the name span of a branch.
+     *
+     * @param branch branch name
+     * @return the pattern
+     */
+    private static Pattern getBranchPattern(String branch)
+    {
+        Pattern pattern = BRANCH_PATTERNS.get(branch);
+        if (pattern == null)
+        {
+            pattern = Pattern.compile("<span[^>]*>\\s*" + Pattern.quote(branch) + "\\s*</span>");
+            BRANCH_PATTERNS.putIfAbsent(branch, pattern);
+        }
+        return pattern;
+    }
+
+    /**
+     * Gets the value span text of a cell.
+     *
+     * @param cell markup inside the cell
+     * @return cell value or null if not found
+     */
+    private static String getValue(String cell)
+    {
+        Matcher valueMatcher = VALUE_PATTERN.matcher(cell);
+        if (!valueMatcher.find())
+        {
+            return null;
+        }
+        return ArenaHtml.getText(valueMatcher.group(1));
+    }
+}
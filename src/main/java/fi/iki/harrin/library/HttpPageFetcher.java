@@ -0,0 +1,204 @@
+package fi.iki.harrin.library;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Fetches pages over HTTP. Keeps the session cookies of the web
+ * application, so one fetcher must not be shared by several workers.
+ *
+ * @author $Author: $
+ */
+class HttpPageFetcher implements PageFetcher
+{
+    /** Connect and read timeout in milliseconds */
+    private static final int TIMEOUT = 30000;
+    /** Maximum number of followed redirects */
+    private static final int MAX_REDIRECTS = 5;
+    /** Charset used if the response does not specify one */
+    private static final String DEFAULT_CHARSET = "UTF-8";
+
+    /** Session cookies by name */
+    private final Map<String, String> m_cookies = new LinkedHashMap<String, String>();
+
+    @Override
+    public String fetch(String url)
+        throws IOException
+    {
+        return fetch(url,
+                     null);
+    }
+
+    @Override
+    public String fetchAjax(String url,
+                            String pageUrl)
+        throws IOException
+    {
+        return fetch(url,
+                     pageUrl);
+    }
+
+    /**
+     * Fetches the url following redirects.
+     *
+     * @param url     the url
+     * @param pageUrl page url of an AJAX request, null for normal request
+     * @return response content
+     * @throws IOException if fetching fails
+     */
+    private String fetch(String url,
+                         String pageUrl)
+        throws IOException
+    {
+        URL currentUrl = new URL(url);
+        for (int i = 0; i <= MAX_REDIRECTS; i++)
+        {
+            HttpURLConnection connection = (HttpURLConnection) currentUrl.openConnection();
+            try
+            {
+                connection.setInstanceFollowRedirects(false);
+                connection.setConnectTimeout(TIMEOUT);
+                connection.setReadTimeout(TIMEOUT);
+                connection.setRequestProperty("Accept-Encoding", "gzip");
+                connection.setRequestProperty("Accept-Language", "fi");
+                if (!m_cookies.isEmpty())
+                {
+                    connection.setRequestProperty("Cookie", getCookieHeader());
+                }
+                if (pageUrl != null)
+                {
+                    connection.setRequestProperty("Wicket-Ajax", "true");
+                    connection.setRequestProperty("Wicket-Ajax-BaseURL", pageUrl);
+                    connection.setRequestProperty("X-Requested-With", "XMLHttpRequest");
+                }
+
+                int responseCode = connection.getResponseCode();
+                storeCookies(connection);
+
+                String location = connection.getHeaderField("Location");
+                if (responseCode / 100 == 3 && location != null)
+                {
+                    currentUrl = new URL(currentUrl, location);
+                    continue;
+                }
+                if (responseCode != HttpURLConnection.HTTP_OK)
+                {
+                    throw new IOException("HTTP " + responseCode + " from " + currentUrl);
+                }
+
+                return readContent(connection);
+            }
+            finally
+            {
+                connection.disconnect();
+            }
+        }
+        throw new IOException("Too many redirects from " + url);
+    }
+
+    /**
+     * Reads the response content.
+     *
+     * @param connection the connection
+     * @return content as string
+     * @throws IOException if reading fails
+     */
+    private String readContent(HttpURLConnection connection)
+        throws IOException
+    {
+        InputStream input = connection.getInputStream();
+        try
+        {
+            if ("gzip".equalsIgnoreCase(connection.getContentEncoding()))
+            {
+                input = new GZIPInputStream(input);
+            }
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = input.read(buffer)) != -1)
+            {
+                output.write(buffer, 0, count);
+            }
+            return output.toString(getCharset(connection.getContentType()));
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    /**
+     * Gets the charset of the content type.
+     *
+     * @param contentType content type header value
+     * @return charset name
+     */
+    private String getCharset(String contentType)
+    {
+        if (contentType != null)
+        {
+            for (String parameter : contentType.split(";"))
+            {
+                parameter = parameter.trim();
+                if (parameter.toLowerCase().startsWith("charset="))
+                {
+                    return parameter.substring("charset=".length()).replace("\"", "");
+                }
+            }
+        }
+        return DEFAULT_CHARSET;
+    }
+
+    /**
+     * Stores the cookies set by the response.
+     *
+     * @param connection the connection
+     */
+    private void storeCookies(HttpURLConnection connection)
+    {
+        List<String> listCookies = connection.getHeaderFields().get("Set-Cookie");
+        if (listCookies == null)
+        {
+            return;
+        }
+
+        for (String cookie : listCookies)
+        {
+            String nameValue = cookie.split(";", 2)[0];
+            int equalsIndex = nameValue.indexOf('=');
+            if (equalsIndex > 0)
+            {
+                m_cookies.put(nameValue.substring(0, equalsIndex).trim(),
+                              nameValue.substring(equalsIndex + 1).trim());
+            }
+        }
+    }
+
+    /**
+     * Gets the stored cookies as a request header value.
+     *
+     * @return header value
+     */
+    private String getCookieHeader()
+    {
+        StringBuilder header = new StringBuilder();
+        for (Map.Entry<String, String> cookie : m_cookies.entrySet())
+        {
+            if (header.length() > 0)
+            {
+                header.append("; ");
+            }
+            header.append(cookie.getKey()).append('=').append(cookie.getValue());
+        }
+        return header.toString();
+    }
+}
@@ -0,0 +1,337 @@
+package fi.iki.harrin.library;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Query engine requesting the Arena pages and Wicket AJAX responses
+ * directly without a browser. Follows the same steps as the browser:
+ * search result, best matching record, organisation and branch
+ * holdings.
+ *
+ * @author $Author: $
+ */
+class HttpQueryEngine implements QueryEngine
+{
+    /** Organisation expanded in the holdings */
+    private static final String ORGANISATION = "Tampereen kaupunginkirjasto";
+    /** Maximum number of result pages read in an author search */
+    private static final int MAX_RESULT_PAGES = 10;
+
+    /** Url of the start page */
+    private final String m_libraryUrl;
+    /** Fetches the pages */
+    private final PageFetcher m_fetcher;
+    /** Branches whose holdings are checked, the first one gives the status */
+    private final List<String> m_listBranches;
+    /** Wall time spent in each phase of a query */
+    private final Timings m_phaseTimings;
+
+    /**
+     * Constructor for HttpQueryEngine.
+     *
+     * @param libraryUrl   url of the start page
+     * @param fetcher      fetches the pages
+     * @param listBranches branches whose holdings are checked, the first
+     *                     one gives the status of the book
+     * @param phaseTimings output timings of query phases
+     */
+    HttpQueryEngine(String       libraryUrl,
+                    PageFetcher  fetcher,
+                    List<String> listBranches,
+                    Timings      phaseTimings)
+    {
+        m_libraryUrl = libraryUrl;
+        m_fetcher = fetcher;
+        m_listBranches = listBranches;
+        m_phaseTimings = phaseTimings;
+    }
+
+    @Override
+    public BookStatus query(BookInfo book)
+        throws IOException
+    {
+        long phaseStartTime = System.currentTimeMillis();
+        Page resultPage = fetchResultPage(ArenaSearchUrl.create(m_libraryUrl,
+                                                                book));
+        phaseStartTime = recordPhase(URL_SEARCH_PHASE,
+                                     phaseStartTime);
+
+        List<ArenaRecord> listRecords = ResultListParser.parse(resultPage.m_content,
+                                                               resultPage.m_url);
+        if (!listRecords.isEmpty())
+        {
+            ArenaRecord record = RecordMatcher.findBest(book,
+                                                        listRecords);
+            if (record == null)
+            {
+                return BookStatus.NOT_FOUND;
+            }
+            Page recordPage = new Page(record.getHoldingsUrl(),
+                                       m_fetcher.fetch(record.getHoldingsUrl()));
+            recordPhase(AVAILABILITY_PHASE,
+                        phaseStartTime);
+            book.setRecordUrl(recordPage.m_url);
+            return checkHoldings(book,
+                                 recordPage);
+        }
+
+        // result markup without records, click the last link as before
+        List<ArenaHtml.Link> availabilityLinks = ArenaHtml.findLinks(resultPage.m_content,
+                                                                     ResultListParser.AVAILABILITY_LINK);
+        if (availabilityLinks.isEmpty())
+        {
+            return BookStatus.NOT_FOUND;
+        }
+        ArenaHtml.Link availabilityLink = availabilityLinks.get(availabilityLinks.size() - 1);
+        Page recordPage = follow(resultPage,
+                                 availabilityLink);
+        recordPhase(AVAILABILITY_PHASE,
+                    phaseStartTime);
+        book.setRecordUrl(availabilityLink.isNavigable() ? recordPage.m_url : null);
+        return checkHoldings(book,
+                             recordPage);
+    }
+
+    @Override
+    public List<ArenaRecord> searchAuthor(String author)
+        throws IOException
+    {
+        Page resultPage = fetchResultPage(ArenaSearchUrl.createAuthorSearch(m_libraryUrl,
+                                                                            author));
+
+        List<ArenaRecord> listRecords = new ArrayList<ArenaRecord>();
+        for (int i = 0; resultPage != null && i < MAX_RESULT_PAGES; i++)
+        {
+            listRecords.addAll(ResultListParser.parse(resultPage.m_content,
+                                                      resultPage.m_url));
+            resultPage = expand(resultPage,
+                                ResultListParser.NEXT_PAGE_LINK);
+        }
+        return listRecords;
+    }
+
+    @Override
+    public BookStatus queryRecord(BookInfo    book,
+                                  ArenaRecord record)
+        throws IOException
+    {
+        String url = record.getHoldingsUrl();
+        book.setRecordUrl(url);
+        return checkHoldings(book,
+                             new Page(url,
+                                      m_fetcher.fetch(url)));
+    }
+
+    @Override
+    public void close()
+    {
+        // nothing to release
+    }
+
+    /**
+     * Fetches a search result page.
+     *
+     * @param searchUrl url of the search
+     * @return the page
+     * @throws IOException if fetching fails or the page is not a result page
+     */
+    private Page fetchResultPage(String searchUrl)
+        throws IOException
+    {
+        Page resultPage = new Page(searchUrl,
+                                   m_fetcher.fetch(searchUrl));
+        if (resultPage.m_content.indexOf("Hakutulos") == -1)
+        {
+            throw new IOException("No search result in " + searchUrl);
+        }
+        return resultPage;
+    }
+
+    /**
+     * Expands the organisation and branch holdings of a record page and
+     * classifies the availability. Holdings of all branches of interest
+     * are read from the same record page and stored to the book.
+     *
+     * @param book       the book
+     * @param recordPage record page showing the holdings
+     * @return status of the book
+     * @throws IOException if fetching fails
+     */
+    private BookStatus checkHoldings(BookInfo book,
+                                     Page     recordPage)
+        throws IOException
+    {
+        long phaseStartTime = System.currentTimeMillis();
+        Page organisationPage = expand(recordPage,
+                                       ORGANISATION);
+        if (organisationPage == null)
+        {
+            return BookStatus.NOT_FOUND;
+        }
+        phaseStartTime = recordPhase(ORGANISATION_PHASE,
+                                     phaseStartTime);
+
+        // a branch without a link does not hold the book
+        Map<String, String> mapBranchContents = new LinkedHashMap<String, String>();
+        for (String branch : m_listBranches)
+        {
+            Page branchPage = expand(organisationPage,
+                                     branch);
+            mapBranchContents.put(branch,
+                                  branchPage != null ? branchPage.m_content : null);
+        }
+        phaseStartTime = recordPhase(BRANCH_PHASE,
+                                     phaseStartTime);
+
+        Map<String, Holdings> mapHoldings = new LinkedHashMap<String, Holdings>();
+        for (Map.Entry<String, String> entry : mapBranchContents.entrySet())
+        {
+            mapHoldings.put(entry.getKey(),
+                            entry.getValue() != null
+                                ? HoldingsParser.parse(entry.getValue(), entry.getKey())
+                                : null);
+        }
+        recordPhase(HOLDINGS_PHASE,
+                    phaseStartTime);
+        book.setBranchHoldings(mapHoldings);
+
+        Holdings holdings = mapHoldings.get(m_listBranches.get(0));
+        if (holdings == null)
+        {
+            return BookStatus.NOT_FOUND;
+        }
+
+        BookStatus status = holdings.getStatus();
+        if (status == BookStatus.AVAILABLE)
+        {
+            book.setRealLocation(holdings.getShelfMark());
+        }
+        return status;
+    }
+
+    /**
+     * Records the time spent in a query phase.
+     *
+     * @param name      phase name
+     * @param startTime start time of the phase
+     * @return end time of the phase, i.e. start time of the next phase
+     */
+    private long recordPhase(String name,
+                             long   startTime)
+    {
+        long endTime = System.currentTimeMillis();
+        m_phaseTimings.record(name,
+                              endTime - startTime);
+        return endTime;
+    }
+
+    /**
+     * Clicks the link with the given text.
+     *
+     * @param page     current page
+     * @param linkText text of the link
+     * @return content after the click or null if the link is not found
+     * @throws IOException if fetching fails
+     */
+    private Page expand(Page   page,
+                        String linkText)
+        throws IOException
+    {
+        List<ArenaHtml.Link> links = ArenaHtml.findLinks(page.m_content,
+                                                         linkText);
+        if (links.isEmpty())
+        {
+            return null;
+        }
+        return follow(page,
+                      links.get(0));
+    }
+
+    /**
+     * Follows a link either by loading the target page or by calling its
+     * AJAX behavior.
+     *
+     * @param page current page
+     * @param link the link
+     * @return content after following the link
+     * @throws IOException if fetching fails or the link has no target
+     */
+    private Page follow(Page           page,
+                        ArenaHtml.Link link)
+        throws IOException
+    {
+        if (link.isNavigable())
+        {
+            String url = ArenaHtml.resolve(page.m_url,
+                                           link.getHref());
+            return new Page(url,
+                            m_fetcher.fetch(url));
+        }
+
+        String ajaxUrl = ArenaHtml.findAjaxUrl(page.m_content,
+                                               link.getId());
+        if (ajaxUrl == null)
+        {
+            ajaxUrl = ArenaHtml.findAjaxUrl(page.m_pageContent,
+                                            link.getId());
+        }
+        if (ajaxUrl == null)
+        {
+            ajaxUrl = ArenaHtml.findAjaxGetUrl(link.getOnclick());
+        }
+        if (ajaxUrl == null)
+        {
+            throw new IOException("No AJAX behavior for link " + link.getId() + " in " + page.m_url);
+        }
+
+        String response = m_fetcher.fetchAjax(ArenaHtml.resolve(page.m_url, ajaxUrl),
+                                              page.m_url);
+        return new Page(page,
+                        response);
+    }
+
+    /**
+     * Content shown in the browser after a navigation or AJAX update.
+     */
+    private static final class Page
+    {
+        /** Url of the loaded page */
+        private final String m_url;
+        /** Content of the loaded page */
+        private final String m_pageContent;
+        /** Latest content: the page or the latest AJAX response */
+        private final String m_content;
+
+        /**
+         * Constructor for a loaded page.
+         *
+         * @param url     url of the page
+         * @param content content of the page
+         */
+        Page(String url,
+             String content)
+        {
+            m_url = url;
+            m_pageContent = content;
+            m_content = content;
+        }
+
+        /**
+         * Constructor for an AJAX update of a page.
+         *
+         * @param page     the updated page
+         * @param response AJAX response
+         */
+        Page(Page   page,
+             String response)
+        {
+            m_url = page.m_url;
+            m_pageContent = page.m_pageContent;
+            m_content = response;
+        }
+    }
+}
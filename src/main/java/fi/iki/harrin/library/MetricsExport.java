@@ -0,0 +1,184 @@
+package fi.iki.harrin.library;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Map;
+
+/**
+ * Writes the latency distributions of a run to a file for further
+ * analysis. The format is selected by the file suffix: .csv writes one
+ * row per operation, anything else writes JSON.
+ *
+ * @author $Author: $
+ */
+final class MetricsExport
+{
+    /** Column names of the CSV format */
+    private static final String CSV_HEADER = "group,name,count,total_ms,avg_ms,p50_ms,p95_ms,p99_ms,max_ms";
+
+    /**
+     * Constructor for MetricsExport.
+     */
+    private MetricsExport()
+    {
+    }
+
+    /**
+     * Writes the timings.
+     *
+     * @param file       output file
+     * @param mapTimings timings by group name
+     * @throws IOException if the file cannot be written
+     */
+    static void write(File                 file,
+                      Map<String, Timings> mapTimings)
+        throws IOException
+    {
+        Writer writer = null;
+        try
+        {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+            if (file.getName().toLowerCase().endsWith(".csv"))
+            {
+                writeCsv(writer, mapTimings);
+            }
+            else
+            {
+                writeJson(writer, mapTimings);
+            }
+        }
+        finally
+        {
+            if (writer != null)
+            {
+                writer.close();
+            }
+        }
+    }
+
+    /**
+     * Writes the timings as CSV.
+     *
+     * @param writer     output
+     * @param mapTimings timings by group name
+     * @throws IOException if the output cannot be written
+     */
+    private static void writeCsv(Writer               writer,
+                                 Map<String, Timings> mapTimings)
+        throws IOException
+    {
+        writer.write(CSV_HEADER);
+        writer.write('\n');
+        for (Map.Entry<String, Timings> entry : mapTimings.entrySet())
+        {
+            for (Timings.Summary summary : entry.getValue().getSummaries())
+            {
+                writer.write(quoteCsv(entry.getKey()) + ","
+                             + quoteCsv(summary.getName()) + ","
+                             + summary.getCount() + ","
+                             + summary.getTotal() + ","
+                             + summary.getAverage() + ","
+                             + summary.getP50() + ","
+                             + summary.getP95() + ","
+                             + summary.getP99() + ","
+                             + summary.getMax());
+                writer.write('\n');
+            }
+        }
+    }
+
+    /**
+     * Writes the timings as a JSON object with a member per group.
+     *
+     * @param writer     output
+     * @param mapTimings timings by group name
+     * @throws IOException if the output cannot be written
+     */
+    private static void writeJson(Writer               writer,
+                                  Map<String, Timings> mapTimings)
+        throws IOException
+    {
+        writer.write("{");
+        String groupSeparator = "\n";
+        for (Map.Entry<String, Timings> entry : mapTimings.entrySet())
+        {
+            writer.write(groupSeparator + "  " + quoteJson(entry.getKey()) + ": [");
+            groupSeparator = ",\n";
+
+            String separator = "\n";
+            for (Timings.Summary summary : entry.getValue().getSummaries())
+            {
+                writer.write(separator
+                             + "    {\"name\": " + quoteJson(summary.getName())
+                             + ", \"count\": " + summary.getCount()
+                             + ", \"total_ms\": " + summary.getTotal()
+                             + ", \"avg_ms\": " + summary.getAverage()
+                             + ", \"p50_ms\": " + summary.getP50()
+                             + ", \"p95_ms\": " + summary.getP95()
+                             + ", \"p99_ms\": " + summary.getP99()
+                             + ", \"max_ms\": " + summary.getMax() + "}");
+                separator = ",\n";
+            }
+            writer.write(separator.equals("\n") ? "]" : "\n  ]");
+        }
+        writer.write("\n}\n");
+    }
+
+    /**
+     * Quotes a CSV field if needed.
+     *
+     * @param value the value, null for an empty field
+     * @return the field
+     */
+    static String quoteCsv(String value)
+    {
+        if (value == null)
+        {
+            return "";
+        }
+        if (value.indexOf(',') < 0
+                && value.indexOf('"') < 0
+                && value.indexOf('\n') < 0
+                && value.indexOf('\r') < 0)
+        {
+            return value;
+        }
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * Quotes a JSON string.
+     *
+     * @param value the value, null for an empty string
+     * @return the string literal
+     */
+    static String quoteJson(String value)
+    {
+        if (value == null)
+        {
+            return "\"\"";
+        }
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\')
+            {
+                quoted.append('\\').append(c);
+            }
+            else if (c < 0x20)
+            {
+                quoted.append(String.format("\\u%04x", (int) c));
+            }
+            else
+            {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -0,0 +1,255 @@
+package fi.iki.harrin.library;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Compressed archive of the pages fetched for each book. The archive is
+ * a zip file with one entry per book key holding the fetched pages and
+ * AJAX responses in fetch order. A key written again, e.g. when a
+ * failed query is retried, gets a new entry named by the key and its
+ * sequence number, and the latest entry is replayed. An archive is
+ * either recorded or replayed. Can be shared by several workers.
+ *
+ * @author $Author: $
+ */
+class PageArchive
+{
+    /** Separator of the key and the sequence number of a repeated entry */
+    private static final String SEQUENCE_SEPARATOR = "#";
+
+    /** Archive being recorded or null when replaying */
+    private final ZipOutputStream m_output;
+    /** Archive being replayed or null when recording */
+    private final ZipFile m_input;
+    /** Number of the recorded entries by key */
+    private final Map<String, Integer> m_mapEntryCounts = new HashMap<String, Integer>();
+
+    /**
+     * Constructor for PageArchive.
+     *
+     * @param output archive being recorded or null
+     * @param input  archive being replayed or null
+     */
+    private PageArchive(ZipOutputStream output,
+                        ZipFile         input)
+    {
+        m_output = output;
+        m_input = input;
+    }
+
+    /**
+     * Creates a new archive for recording. An existing file is
+     * overwritten.
+     *
+     * @param file archive file
+     * @return the archive
+     * @throws IOException if the file cannot be created
+     */
+    static PageArchive create(File file)
+        throws IOException
+    {
+        ZipOutputStream output = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        output.setLevel(Deflater.BEST_COMPRESSION);
+        return new PageArchive(output,
+                               null);
+    }
+
+    /**
+     * Opens an archive for replaying.
+     *
+     * @param file archive file
+     * @return the archive
+     * @throws IOException if the file cannot be read
+     */
+    static PageArchive open(File file)
+        throws IOException
+    {
+        return new PageArchive(null,
+                               new ZipFile(file));
+    }
+
+    /**
+     * Writes the pages of a key. Every write is kept, the latest one is
+     * replayed.
+     *
+     * @param key           book key
+     * @param listExchanges fetched pages in fetch order
+     * @throws IOException if writing fails
+     */
+    synchronized void write(String         key,
+                            List<Exchange> listExchanges)
+        throws IOException
+    {
+        Integer count = m_mapEntryCounts.get(key);
+        int sequence = count != null ? count : 0;
+        m_mapEntryCounts.put(key, sequence + 1);
+
+        m_output.putNextEntry(new ZipEntry(getEntryName(key, sequence)));
+        DataOutputStream output = new DataOutputStream(m_output);
+        output.writeInt(listExchanges.size());
+        for (Exchange exchange : listExchanges)
+        {
+            byte[] content = exchange.getContent().getBytes("UTF-8");
+            output.writeBoolean(exchange.isAjax());
+            output.writeUTF(exchange.getUrl());
+            output.writeInt(content.length);
+            output.write(content);
+        }
+        output.flush();
+        m_output.closeEntry();
+    }
+
+    /**
+     * Reads the pages of the latest entry of a key.
+     *
+     * @param key book key
+     * @return fetched pages in fetch order or null if the key is not
+     *         recorded
+     * @throws IOException if reading fails
+     */
+    List<Exchange> read(String key)
+        throws IOException
+    {
+        ZipEntry entry = m_input.getEntry(key);
+        if (entry == null)
+        {
+            return null;
+        }
+        for (int sequence = 1; ; sequence++)
+        {
+            ZipEntry next = m_input.getEntry(getEntryName(key, sequence));
+            if (next == null)
+            {
+                break;
+            }
+            entry = next;
+        }
+
+        DataInputStream input = new DataInputStream(m_input.getInputStream(entry));
+        try
+        {
+            int count = input.readInt();
+            List<Exchange> listExchanges = new ArrayList<Exchange>(count);
+            for (int i = 0; i < count; i++)
+            {
+                boolean ajax = input.readBoolean();
+                String url = input.readUTF();
+                byte[] content = new byte[input.readInt()];
+                input.readFully(content);
+                listExchanges.add(new Exchange(url,
+                                               ajax,
+                                               new String(content, "UTF-8")));
+            }
+            return listExchanges;
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    /**
+     * Closes the archive. A recorded archive is complete only after
+     * closing.
+     *
+     * @throws IOException if closing fails
+     */
+    synchronized void close()
+        throws IOException
+    {
+        if (m_output != null)
+        {
+            m_output.close();
+        }
+        if (m_input != null)
+        {
+            m_input.close();
+        }
+    }
+
+    /**
+     * Gets the name of an entry of a key. The first entry is named by
+     * the key only.
+     *
+     * @param key      book key
+     * @param sequence sequence number of the entry from 0
+     * @return entry name
+     */
+    private static String getEntryName(String key,
+                                       int    sequence)
+    {
+        return sequence == 0 ? key : key + SEQUENCE_SEPARATOR + sequence;
+    }
+
+    /**
+     * One fetched page or AJAX response.
+     */
+    static final class Exchange
+    {
+        /** Requested url */
+        private final String m_url;
+        /** Whether the request was a Wicket AJAX request */
+        private final boolean m_ajax;
+        /** Content of the response */
+        private final String m_content;
+
+        /**
+         * Constructor for Exchange.
+         *
+         * @param url     requested url
+         * @param ajax    whether the request was a Wicket AJAX request
+         * @param content content of the response
+         */
+        Exchange(String  url,
+                 boolean ajax,
+                 String  content)
+        {
+            m_url = url;
+            m_ajax = ajax;
+            m_content = content;
+        }
+
+        /**
+         * Gets the value.
+         *
+         * @return the value
+         */
+        String getUrl()
+        {
+            return m_url;
+        }
+
+        /**
+         * Gets the value.
+         *
+         * @return the value
+         */
+        boolean isAjax()
+        {
+            return m_ajax;
+        }
+
+        /**
+         * Gets the value.
+         *
+         * @return the value
+         */
+        String getContent()
+        {
+            return m_content;
+        }
+    }
+}
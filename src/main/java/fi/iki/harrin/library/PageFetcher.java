@@ -0,0 +1,33 @@
+package fi.iki.harrin.library;
+
+import java.io.IOException;
+
+/**
+ * Fetches pages of the library web application.
+ *
+ * @author $Author: $
+ */
+interface PageFetcher
+{
+    /**
+     * Fetches a page.
+     *
+     * @param url url of the page
+     * @return page content
+     * @throws IOException if fetching fails
+     */
+    String fetch(String url)
+        throws IOException;
+
+    /**
+     * Fetches a Wicket AJAX response.
+     *
+     * @param url     url of the AJAX behavior
+     * @param pageUrl url of the page the behavior belongs to
+     * @return AJAX response content
+     * @throws IOException if fetching fails
+     */
+    String fetchAjax(String url,
+                     String pageUrl)
+        throws IOException;
+}
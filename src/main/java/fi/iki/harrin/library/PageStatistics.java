@@ -0,0 +1,62 @@
+package fi.iki.harrin.library;
+
+/**
+ * Collects the number of loaded pages, the bytes transferred and the
+ * page load times of the browser, so that browser settings can be
+ * compared between runs. Can be shared by several workers.
+ *
+ * @author $Author: $
+ */
+class PageStatistics
+{
+    /** Number of loaded documents */
+    private long m_pageCount = 0;
+    /** Total page load time of the documents */
+    private long m_totalLoadTime = 0;
+    /** Longest page load time */
+    private long m_maxLoadTime = 0;
+    /** Bytes transferred by documents, resources and AJAX requests */
+    private long m_transferredBytes = 0;
+
+    /**
+     * Records a loaded document.
+     *
+     * @param loadTime load time of the document in milliseconds
+     */
+    synchronized void recordPage(long loadTime)
+    {
+        m_pageCount++;
+        m_totalLoadTime += loadTime;
+        m_maxLoadTime = Math.max(m_maxLoadTime, loadTime);
+    }
+
+    /**
+     * Records transferred bytes.
+     *
+     * @param bytes number of bytes
+     */
+    synchronized void recordTransfer(long bytes)
+    {
+        m_transferredBytes += bytes;
+    }
+
+    /**
+     * Prints the statistics.
+     */
+    synchronized void print()
+    {
+        System.out.println("");
+        System.out.println("Page loads:");
+        System.out.println("- pages: " + m_pageCount);
+        if (m_pageCount > 0)
+        {
+            System.out.println("- load time: avg=" + (m_totalLoadTime / m_pageCount) + " ms"
+                               + " max=" + m_maxLoadTime + " ms");
+        }
+        System.out.println("- transferred: " + (m_transferredBytes / 1024) + " kB");
+        if (m_pageCount > 0)
+        {
+            System.out.println("- transferred per page: " + (m_transferredBytes / 1024 / m_pageCount) + " kB");
+        }
+    }
+}
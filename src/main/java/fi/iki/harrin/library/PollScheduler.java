@@ -0,0 +1,188 @@
+package fi.iki.harrin.library;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Schedules the checks of the watch mode. Each book is checked again
+ * after an interval depending on its status: books whose status changed
+ * recently are polled often, books that have been missing for long
+ * rarely. The number of checks started in any one hour is limited by a
+ * budget. Can be shared by several workers.
+ *
+ * The position of a book in the hold queue is not used: the holdings
+ * pages read by the query engines do not show it, so a book near the
+ * front of a queue is polled like any other checked out book.
+ *
+ * @author $Author: $
+ */
+class PollScheduler
+{
+    /** Minutes in milliseconds */
+    private static final long MINUTE = 60 * 1000L;
+    /** Length of the budget window in milliseconds */
+    private static final long BUDGET_WINDOW = 60 * MINUTE;
+    /** Time a change keeps a book in the fast lane */
+    private static final long RECENT_CHANGE = 2 * 60 * MINUTE;
+    /** Interval of books whose status changed recently */
+    private static final long FAST_INTERVAL = 10 * MINUTE;
+
+    /** Interval of each status in milliseconds */
+    private static final Map<BookStatus, Long> POLL_INTERVAL =
+        new EnumMap<BookStatus, Long>(BookStatus.class);
+    static
+    {
+        POLL_INTERVAL.put(BookStatus.AVAILABLE, 60 * MINUTE);
+        POLL_INTERVAL.put(BookStatus.NOT_AVAILABLE, 30 * MINUTE);
+        POLL_INTERVAL.put(BookStatus.ORDERED, 6 * 60 * MINUTE);
+        POLL_INTERVAL.put(BookStatus.NOT_FOUND, 24 * 60 * MINUTE);
+        POLL_INTERVAL.put(BookStatus.FAILED, 15 * MINUTE);
+    }
+
+    /** Maximum number of checks started in an hour */
+    private final int m_hourlyBudget;
+    /** Books waiting for their next check, earliest first */
+    private final PriorityQueue<ScheduledBook> m_queue = new PriorityQueue<ScheduledBook>();
+    /** Latest status and change time by book */
+    private final Map<BookInfo, ScheduledBook> m_books = new IdentityHashMap<BookInfo, ScheduledBook>();
+    /** Start times of the checks in the budget window, oldest first */
+    private final Deque<Long> m_startTimes = new ArrayDeque<Long>();
+
+    /**
+     * Constructor for PollScheduler.
+     *
+     * @param hourlyBudget maximum number of checks started in an hour
+     */
+    PollScheduler(int hourlyBudget)
+    {
+        m_hourlyBudget = hourlyBudget;
+    }
+
+    /**
+     * Schedules a book without a known status to be checked at once.
+     *
+     * @param book the book
+     */
+    synchronized void add(BookInfo book)
+    {
+        ScheduledBook scheduled = new ScheduledBook(book);
+        m_books.put(book, scheduled);
+        m_queue.add(scheduled);
+        notifyAll();
+    }
+
+    /**
+     * Schedules the next check of a book after a result.
+     *
+     * @param book   the book
+     * @param status result of the check
+     * @param time   time of the result
+     */
+    synchronized void schedule(BookInfo   book,
+                               BookStatus status,
+                               long       time)
+    {
+        ScheduledBook scheduled = m_books.get(book);
+        if (scheduled == null)
+        {
+            scheduled = new ScheduledBook(book);
+            m_books.put(book, scheduled);
+        }
+        if (scheduled.m_status != null
+                && scheduled.m_status != status)
+        {
+            scheduled.m_changeTime = time;
+        }
+        scheduled.m_status = status;
+
+        long interval = POLL_INTERVAL.get(status);
+        if (time - scheduled.m_changeTime < RECENT_CHANGE)
+        {
+            interval = Math.min(interval, FAST_INTERVAL);
+        }
+        scheduled.m_dueTime = time + interval;
+        m_queue.add(scheduled);
+        notifyAll();
+    }
+
+    /**
+     * Takes the next book to check, waiting until it is due and the
+     * budget of the last hour allows a new check.
+     *
+     * @return the book
+     * @throws InterruptedException if interrupted while waiting
+     */
+    synchronized BookInfo take()
+        throws InterruptedException
+    {
+        while (true)
+        {
+            long now = System.currentTimeMillis();
+            while (!m_startTimes.isEmpty()
+                    && now - m_startTimes.peekFirst() >= BUDGET_WINDOW)
+            {
+                m_startTimes.removeFirst();
+            }
+
+            long waitTime;
+            ScheduledBook next = m_queue.peek();
+            if (next == null)
+            {
+                waitTime = 0;
+            }
+            else if (m_startTimes.size() >= m_hourlyBudget)
+            {
+                waitTime = m_startTimes.peekFirst() + BUDGET_WINDOW - now;
+            }
+            else if (next.m_dueTime > now)
+            {
+                waitTime = next.m_dueTime - now;
+            }
+            else
+            {
+                m_queue.poll();
+                m_startTimes.addLast(now);
+                return next.m_book;
+            }
+
+            // woken up early when a result moves a book ahead
+            wait(waitTime);
+        }
+    }
+
+    /**
+     * Scheduling state of one book.
+     */
+    private static final class ScheduledBook
+        implements Comparable<ScheduledBook>
+    {
+        /** The book */
+        private final BookInfo m_book;
+        /** Latest status or null if not checked yet */
+        private BookStatus m_status = null;
+        /** Time of the latest status change */
+        private long m_changeTime = 0;
+        /** Time of the next check */
+        private long m_dueTime = 0;
+
+        /**
+         * Constructor for ScheduledBook.
+         *
+         * @param book the book
+         */
+        ScheduledBook(BookInfo book)
+        {
+            m_book = book;
+        }
+
+        @Override
+        public int compareTo(ScheduledBook other)
+        {
+            return Long.compare(m_dueTime, other.m_dueTime);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package fi.iki.harrin.library;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Searches books from the library database. One engine is used by one
+ * worker at a time.
+ *
+ * @author $Author: $
+ */
+interface QueryEngine
+{
+    /** Phase opening the search result page by url */
+    String URL_SEARCH_PHASE = "search by url";
+    /** Phase filling the search form up to the complete result list */
+    String FORM_SEARCH_PHASE = "search by form";
+    /** Phase opening the record page from the availability link */
+    String AVAILABILITY_PHASE = "availability link";
+    /** Phase expanding the holdings of the organisation */
+    String ORGANISATION_PHASE = "organisation holdings";
+    /** Phase expanding the holdings of the branch */
+    String BRANCH_PHASE = "branch holdings";
+    /** Phase reading the holdings values of the branch */
+    String HOLDINGS_PHASE = "holdings values";
+
+    /**
+     * Searches the book and classifies its availability. Sets the real
+     * location of the book if it is available.
+     *
+     * @param book the book
+     * @return status of the book
+     * @throws IOException if the library database cannot be read
+     */
+    BookStatus query(BookInfo book)
+        throws IOException;
+
+    /**
+     * Searches all records of an author, following the result pages up
+     * to a limit.
+     *
+     * @param author the author
+     * @return found records
+     * @throws IOException if the library database cannot be read
+     */
+    List<ArenaRecord> searchAuthor(String author)
+        throws IOException;
+
+    /**
+     * Classifies the availability of a book from the holdings of a known
+     * record, skipping the search. Sets the real location of the book if
+     * it is available.
+     *
+     * @param book   the book
+     * @param record record of the book
+     * @return status of the book
+     * @throws IOException if the library database cannot be read
+     */
+    BookStatus queryRecord(BookInfo    book,
+                           ArenaRecord record)
+        throws IOException;
+
+    /**
+     * Releases the resources of the engine.
+     */
+    void close();
+}
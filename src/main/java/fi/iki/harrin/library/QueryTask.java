@@ -0,0 +1,124 @@
+package fi.iki.harrin.library;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit of work taken from the queue by a worker: either one book or a
+ * batch of books by the same author searched with one author search.
+ * A retried book becomes ready after its backoff delay.
+ *
+ * @author $Author: $
+ */
+class QueryTask implements Delayed
+{
+    /** Books of the task */
+    private final List<BookInfo> m_listBooks;
+    /** Searched author of a batch or null for a single book */
+    private final String m_batchAuthor;
+    /** Number of failed attempts before this one */
+    private final int m_retryCount;
+    /** Time when the task may be run */
+    private final long m_readyTime;
+
+    /**
+     * Constructor for a single book task.
+     *
+     * @param book the book
+     */
+    QueryTask(BookInfo book)
+    {
+        this(book,
+             0,
+             0);
+    }
+
+    /**
+     * Constructor for a retry of a single book.
+     *
+     * @param book       the book
+     * @param retryCount number of failed attempts
+     * @param delay      backoff delay in milliseconds
+     */
+    QueryTask(BookInfo book,
+              int      retryCount,
+              long     delay)
+    {
+        m_listBooks = Collections.singletonList(book);
+        m_batchAuthor = null;
+        m_retryCount = retryCount;
+        m_readyTime = System.currentTimeMillis() + delay;
+    }
+
+    /**
+     * Constructor for an author batch task.
+     *
+     * @param author    searched author
+     * @param listBooks books by the author
+     */
+    QueryTask(String         author,
+              List<BookInfo> listBooks)
+    {
+        m_listBooks = Collections.unmodifiableList(new ArrayList<BookInfo>(listBooks));
+        m_batchAuthor = author;
+        m_retryCount = 0;
+        m_readyTime = 0;
+    }
+
+    /**
+     * Gets the value.
+     *
+     * @return the value
+     */
+    List<BookInfo> getBooks()
+    {
+        return m_listBooks;
+    }
+
+    /**
+     * Gets the searched author of a batch.
+     *
+     * @return the author or null for a single book
+     */
+    String getBatchAuthor()
+    {
+        return m_batchAuthor;
+    }
+
+    /**
+     * Checks whether the task is an author batch.
+     *
+     * @return the value
+     */
+    boolean isBatch()
+    {
+        return m_batchAuthor != null;
+    }
+
+    /**
+     * Gets the number of failed attempts before this one.
+     *
+     * @return the value
+     */
+    int getRetryCount()
+    {
+        return m_retryCount;
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit)
+    {
+        return unit.convert(m_readyTime - System.currentTimeMillis(),
+                            TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed other)
+    {
+        long difference = getDelay(TimeUnit.MILLISECONDS) - other.getDelay(TimeUnit.MILLISECONDS);
+        return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+    }
+}
@@ -0,0 +1,179 @@
+package fi.iki.harrin.library;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * On-disk map from books to the Arena record pages found by earlier
+ * searches, so that a book can be checked by opening its record page
+ * directly. Records are stable, so entries do not expire; an entry is
+ * removed when its record page no longer shows the holdings.
+ *
+ * The file has one tab separated line per book: key and record url.
+ *
+ * @author $Author: $
+ */
+class RecordCache
+{
+    /** Cache file */
+    private final File m_file;
+    /** Record urls by book key */
+    private final Map<String, String> m_entries = new LinkedHashMap<String, String>();
+    /** Number of books checked from the cached record */
+    private int m_hitCount = 0;
+    /** Number of cached records no longer resolving */
+    private int m_staleCount = 0;
+
+    /**
+     * Constructor for RecordCache. Reads the cache file if it exists.
+     *
+     * @param file cache file
+     * @throws IOException if reading fails
+     */
+    RecordCache(File file)
+        throws IOException
+    {
+        m_file = file;
+        if (file.exists())
+        {
+            read();
+        }
+    }
+
+    /**
+     * Gets the cached record of the book.
+     *
+     * @param book the book
+     * @return record or null if not cached
+     */
+    synchronized ArenaRecord lookup(BookInfo book)
+    {
+        String url = m_entries.get(book.getKey());
+        if (url == null)
+        {
+            return null;
+        }
+        m_hitCount++;
+        return new ArenaRecord(book.getTitle(),
+                               book.getAuthor(),
+                               url,
+                               null);
+    }
+
+    /**
+     * Stores the record found by a search.
+     *
+     * @param book the book
+     * @param url  url of the record page
+     */
+    synchronized void store(BookInfo book,
+                            String   url)
+    {
+        m_entries.put(book.getKey(),
+                      url);
+    }
+
+    /**
+     * Removes a record no longer showing the holdings.
+     *
+     * @param book the book
+     */
+    synchronized void remove(BookInfo book)
+    {
+        if (m_entries.remove(book.getKey()) != null)
+        {
+            m_hitCount--;
+            m_staleCount++;
+        }
+    }
+
+    /**
+     * Writes the cache file.
+     *
+     * @throws IOException if writing fails
+     */
+    synchronized void save()
+        throws IOException
+    {
+        File tempFile = new File(m_file.getPath() + ".tmp");
+        BufferedWriter writer = null;
+        try
+        {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), "UTF-8"));
+            for (Map.Entry<String, String> entry : m_entries.entrySet())
+            {
+                writer.write(entry.getKey() + "\t" + entry.getValue());
+                writer.newLine();
+            }
+        }
+        finally
+        {
+            if (writer != null)
+            {
+                writer.close();
+            }
+        }
+
+        if (!tempFile.renameTo(m_file))
+        {
+            m_file.delete();
+            if (!tempFile.renameTo(m_file))
+            {
+                throw new IOException("Cannot replace " + m_file);
+            }
+        }
+    }
+
+    /**
+     * Prints the number of searches skipped and stale records.
+     */
+    synchronized void printStatistics()
+    {
+        System.out.println("");
+        System.out.println("Record cache: searches skipped=" + m_hitCount
+                           + " stale records=" + m_staleCount
+                           + " records=" + m_entries.size());
+    }
+
+    /**
+     * Reads the cache file.
+     *
+     * @throws IOException if reading fails
+     */
+    private void read()
+        throws IOException
+    {
+        BufferedReader reader = null;
+        try
+        {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(m_file), "UTF-8"));
+
+            String inputLine;
+            while ((inputLine = reader.readLine()) != null)
+            {
+                String[] fields = inputLine.split("\t", -1);
+                if (fields.length == 2
+                        && fields[1].length() > 0)
+                {
+                    m_entries.put(fields[0],
+                                  fields[1]);
+                }
+            }
+        }
+        finally
+        {
+            if (reader != null)
+            {
+                reader.close();
+            }
+        }
+    }
+}
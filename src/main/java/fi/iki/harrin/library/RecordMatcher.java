@@ -0,0 +1,250 @@
+package fi.iki.harrin.library;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Picks the record of a book from a search result list by scoring each
+ * record against the title, the title part after colon and the author
+ * of the book. Words are compared without diacritics and common Finnish
+ * case endings, so that e.g. "Väinö" matches "Vaino" and "Venetsiassa"
+ * matches "Venetsia". A year or edition number in the book title must
+ * agree with the record.
+ *
+ * @author $Author: $
+ */
+final class RecordMatcher
+{
+    /** Lowest score accepted as a match */
+    static final double THRESHOLD = 0.6;
+
+    /** Weight of the book title words found in the record title */
+    private static final double TITLE_WEIGHT = 0.55;
+    /** Weight of the record title words found in the book */
+    private static final double PRECISION_WEIGHT = 0.15;
+    /** Weight of the words after colon found in the record title */
+    private static final double COLON_PART_WEIGHT = 0.1;
+    /** Weight of the author words found in the record author */
+    private static final double AUTHOR_WEIGHT = 0.2;
+    /** Score change of an agreeing year or edition */
+    private static final double HINT_BONUS = 0.1;
+    /** Score change of a conflicting year or edition */
+    private static final double HINT_PENALTY = 0.3;
+
+    /** Case endings removed from words, longest first */
+    private static final String[] SUFFIXES = {
+        "itten", "ineen", "iden", "issa", "ista", "illa", "ilta", "ille",
+        "ssa", "sta", "lla", "lta", "lle", "ksi", "nsa", "tta",
+        "an", "en", "in", "on", "un", "yn", "n", "t"
+    };
+    /** Shortest word left after removing an ending */
+    private static final int MIN_STEM_LENGTH = 4;
+    /** Matches a year */
+    private static final Pattern YEAR_PATTERN = Pattern.compile("\\b(1[89]\\d\\d|20\\d\\d)\\b");
+    /** Matches an edition number, e.g. "2. painos" or "3 p" */
+    private static final Pattern EDITION_PATTERN = Pattern.compile("\\b(\\d{1,2}) (?:painos|p)\\b");
+    /** Matches the diacritics of a decomposed text */
+    private static final Pattern MARK_PATTERN = Pattern.compile("\\p{M}+");
+    /** Matches the characters between words */
+    private static final Pattern SEPARATOR_PATTERN = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    /**
+     * Constructor for RecordMatcher.
+     */
+    private RecordMatcher()
+    {
+    }
+
+    /**
+     * Finds the best matching record. Of equally good records the one
+     * shown available somewhere is preferred, then the later one.
+     *
+     * @param book        the book
+     * @param listRecords records of the search result
+     * @return the record or null if no record scores above the threshold
+     */
+    static ArenaRecord findBest(BookInfo          book,
+                                List<ArenaRecord> listRecords)
+    {
+        ArenaRecord best = null;
+        double bestScore = THRESHOLD;
+        for (ArenaRecord record : listRecords)
+        {
+            double score = score(book,
+                                 record);
+            if (score > bestScore
+                    || (score == bestScore
+                        && (best == null || record.hasAvailability() || !best.hasAvailability())))
+            {
+                best = record;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Scores a record against a book.
+     *
+     * @param book   the book
+     * @param record the record
+     * @return score, 1 for a full match
+     */
+    static double score(BookInfo    book,
+                        ArenaRecord record)
+    {
+        String title = normalize(book.getTitle());
+        String colonTitlePart = book.getColonTitlePart() != null ? normalize(book.getColonTitlePart()) : "";
+        String recordTitle = normalize(record.getTitle());
+
+        Set<String> setTitleWords = getWords(title);
+        Set<String> setColonWords = getWords(colonTitlePart);
+        Set<String> setRecordWords = getWords(recordTitle);
+
+        Set<String> setBookWords = new HashSet<String>(setTitleWords);
+        setBookWords.addAll(setColonWords);
+
+        double score = TITLE_WEIGHT * getCoverage(setTitleWords, setRecordWords)
+            + PRECISION_WEIGHT * getCoverage(setRecordWords, setBookWords)
+            + COLON_PART_WEIGHT * (setColonWords.isEmpty() ? 1 : getCoverage(setColonWords, setRecordWords));
+
+        // the result list does not always show the author
+        Set<String> setRecordAuthorWords = getWords(normalize(record.getAuthor()));
+        score += AUTHOR_WEIGHT * (setRecordAuthorWords.isEmpty()
+                                  ? 0.5
+                                  : getCoverage(getWords(normalize(book.getAuthor())), setRecordAuthorWords));
+
+        String bookText = title + " " + colonTitlePart;
+        score += scoreHint(YEAR_PATTERN, bookText, recordTitle);
+        score += scoreHint(EDITION_PATTERN, bookText, recordTitle);
+        return score;
+    }
+
+    /**
+     * Scores a year or edition hint of the book title.
+     *
+     * @param pattern     pattern of the hint
+     * @param bookText    normalized title and colon part of the book
+     * @param recordTitle normalized title of the record
+     * @return bonus, penalty or 0 if the book gives no hint
+     */
+    private static double scoreHint(Pattern pattern,
+                                    String  bookText,
+                                    String  recordTitle)
+    {
+        List<String> listBookHints = findAll(pattern, bookText);
+        if (listBookHints.isEmpty())
+        {
+            return 0;
+        }
+
+        List<String> listRecordHints = findAll(pattern, recordTitle);
+        if (listRecordHints.isEmpty())
+        {
+            return 0;
+        }
+        return listRecordHints.containsAll(listBookHints) ? HINT_BONUS : -HINT_PENALTY;
+    }
+
+    /**
+     * Finds the first groups of all matches.
+     *
+     * @param pattern the pattern
+     * @param text    searched text
+     * @return matched values in text order
+     */
+    private static List<String> findAll(Pattern pattern,
+                                        String  text)
+    {
+        List<String> listValues = new ArrayList<String>();
+        Matcher matcher = pattern.matcher(text);
+        while (matcher.find())
+        {
+            listValues.add(matcher.group(1));
+        }
+        return listValues;
+    }
+
+    /**
+     * Gets the share of the words found in the other set.
+     *
+     * @param setWords  the words
+     * @param setOthers the other words
+     * @return share from 0 to 1, 0 if there are no words
+     */
+    private static double getCoverage(Set<String> setWords,
+                                      Set<String> setOthers)
+    {
+        if (setWords.isEmpty())
+        {
+            return 0;
+        }
+
+        int foundCount = 0;
+        for (String word : setWords)
+        {
+            if (setOthers.contains(word))
+            {
+                foundCount++;
+            }
+        }
+        return (double) foundCount / setWords.size();
+    }
+
+    /**
+     * Normalizes a text for comparison: lower case letters without
+     * diacritics and digits separated by single spaces.
+     *
+     * @param text the text
+     * @return normalized text
+     */
+    static String normalize(String text)
+    {
+        String folded = MARK_PATTERN.matcher(Normalizer.normalize(text.toLowerCase(), Normalizer.Form.NFD))
+            .replaceAll("");
+        return SEPARATOR_PATTERN.matcher(folded).replaceAll(" ").trim();
+    }
+
+    /**
+     * Splits a normalized text to stemmed words.
+     *
+     * @param text normalized text
+     * @return the words
+     */
+    static Set<String> getWords(String text)
+    {
+        Set<String> setWords = new HashSet<String>();
+        for (String word : text.split(" "))
+        {
+            if (word.length() > 0)
+            {
+                setWords.add(stem(word));
+            }
+        }
+        return setWords;
+    }
+
+    /**
+     * Removes a common case ending from a word.
+     *
+     * @param word the word
+     * @return the stem
+     */
+    private static String stem(String word)
+    {
+        for (String suffix : SUFFIXES)
+        {
+            if (word.endsWith(suffix)
+                    && word.length() - suffix.length() >= MIN_STEM_LENGTH)
+            {
+                return word.substring(0, word.length() - suffix.length());
+            }
+        }
+        return word;
+    }
+}
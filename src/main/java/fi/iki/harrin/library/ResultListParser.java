@@ -0,0 +1,117 @@
+package fi.iki.harrin.library;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the records of an Arena search result page. Each record starts
+ * with its title block; the author and the "Saatavilla" link of the
+ * record follow before the next title block.
+ *
+ * @author $Author: $
+ */
+final class ResultListParser
+{
+    /** Class of the record title block */
+    private static final String TITLE_CLASS = "arena-record-title";
+    /** Class of the record author block */
+    private static final String AUTHOR_CLASS = "arena-record-author";
+    /** Text of the availability link */
+    static final String AVAILABILITY_LINK = "Saatavilla";
+    /** Text of the next result page link */
+    static final String NEXT_PAGE_LINK = "Seuraava";
+
+    /** Matches the first link, groups are attributes and content */
+    private static final Pattern LINK_PATTERN =
+        Pattern.compile("<a\\b([^>]*)>(.*?)</a>",
+                        Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    /** Matches the content of the author block */
+    private static final Pattern AUTHOR_PATTERN =
+        Pattern.compile(AUTHOR_CLASS + "[^>]*>(.*?)</div>",
+                        Pattern.DOTALL);
+
+    /**
+     * Constructor for ResultListParser.
+     */
+    private ResultListParser()
+    {
+    }
+
+    /**
+     * Parses the records of a result page.
+     *
+     * @param html    the page or AJAX response
+     * @param pageUrl url of the page for resolving links
+     * @return records in page order
+     * @throws IOException if a link is invalid
+     */
+    static List<ArenaRecord> parse(String html,
+                                   String pageUrl)
+        throws IOException
+    {
+        List<ArenaRecord> listRecords = new ArrayList<ArenaRecord>();
+
+        int start = html.indexOf(TITLE_CLASS);
+        while (start != -1)
+        {
+            int end = html.indexOf(TITLE_CLASS, start + TITLE_CLASS.length());
+            String block = html.substring(start, end == -1 ? html.length() : end);
+            ArenaRecord record = parseRecord(block,
+                                             pageUrl);
+            if (record != null)
+            {
+                listRecords.add(record);
+            }
+            start = end;
+        }
+        return listRecords;
+    }
+
+    /**
+     * Parses one record.
+     *
+     * @param block   markup from the title block to the next record
+     * @param pageUrl url of the page for resolving links
+     * @return the record or null if the title has no link
+     * @throws IOException if a link is invalid
+     */
+    private static ArenaRecord parseRecord(String block,
+                                           String pageUrl)
+        throws IOException
+    {
+        Matcher linkMatcher = LINK_PATTERN.matcher(block);
+        if (!linkMatcher.find())
+        {
+            return null;
+        }
+        String href = ArenaHtml.getAttribute(linkMatcher.group(1), "href");
+        if (href == null)
+        {
+            return null;
+        }
+
+        String author = "";
+        Matcher authorMatcher = AUTHOR_PATTERN.matcher(block);
+        if (authorMatcher.find())
+        {
+            author = ArenaHtml.getText(authorMatcher.group(1));
+        }
+
+        String availabilityUrl = null;
+        for (ArenaHtml.Link link : ArenaHtml.findLinks(block, AVAILABILITY_LINK))
+        {
+            if (link.isNavigable())
+            {
+                availabilityUrl = ArenaHtml.resolve(pageUrl, link.getHref());
+            }
+        }
+
+        return new ArenaRecord(ArenaHtml.getText(linkMatcher.group(2)),
+                               author,
+                               ArenaHtml.resolve(pageUrl, href),
+                               availabilityUrl);
+    }
+}
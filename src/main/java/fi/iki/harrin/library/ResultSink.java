@@ -0,0 +1,42 @@
+package fi.iki.harrin.library;
+
+import java.io.IOException;
+
+/**
+ * Receives the result of each book as soon as the book is classified,
+ * e.g. to stream the results to a file during a long run. Results
+ * arrive from several workers in completion order.
+ *
+ * @author $Author: $
+ */
+interface ResultSink
+{
+    /** Source of a result queried by searching the book */
+    String SEARCH_SOURCE = "search";
+    /** Source of a result read from the journal */
+    String JOURNAL_SOURCE = "journal";
+    /** Source of a result read from the cache */
+    String CACHE_SOURCE = "cache";
+
+    /**
+     * Takes the result of a book. Must not block the worker.
+     *
+     * @param book      the book with the real location of this check
+     * @param status    result of the check
+     * @param source    how the result was found, e.g. SEARCH_SOURCE
+     * @param queryTime duration of the query in milliseconds, 0 if not
+     *                  queried
+     */
+    void write(BookInfo   book,
+               BookStatus status,
+               String     source,
+               long       queryTime);
+
+    /**
+     * Writes the pending results and releases the output.
+     *
+     * @throws IOException if writing failed
+     */
+    void close()
+        throws IOException;
+}
@@ -0,0 +1,707 @@
+package fi.iki.harrin.library;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.NoSuchElementException;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.interactions.Actions;
+import org.openqa.selenium.support.ui.ExpectedCondition;
+import org.openqa.selenium.support.ui.ExpectedConditions;
+import org.openqa.selenium.support.ui.FluentWait;
+import org.openqa.selenium.support.ui.Select;
+
+/**
+ * Query engine driving the Arena web application with a browser.
+ *
+ * @author $Author: $
+ */
+class SeleniumQueryEngine implements QueryEngine
+{
+    /** Maximum time to wait for a page condition in seconds */
+    private static final long WAIT_TIMEOUT = 30;
+    /** Polling interval of page conditions in milliseconds */
+    private static final long POLL_INTERVAL = 100;
+    /** Time the search result list must stay unchanged to be complete */
+    private static final long RESULT_STABLE_TIME = 500;
+    /** Maximum number of result pages read in an author search */
+    private static final int MAX_RESULT_PAGES = 10;
+    /** Consecutive failed url searches after which the search form is used */
+    private static final int URL_SEARCH_FAILURE_LIMIT = 3;
+    /** Script telling whether the page has no pending Wicket AJAX requests */
+    private static final String AJAX_IDLE_SCRIPT =
+        "return document.readyState === 'complete'"
+        + " && (typeof jQuery === 'undefined' || jQuery.active === 0);";
+    /**
+     * Script returning the bytes transferred since the previous call and
+     * the load time of the document, or -1 if the document has already
+     * been counted. Transfer sizes of cross-origin resources are only
+     * known if the server allows it, so the bytes are a lower bound.
+     */
+    private static final String PAGE_STATISTICS_SCRIPT =
+        "var bytes = 0, loadTime = -1;"
+        + " if (!window.pikiPageCounted) {"
+        + "  window.pikiPageCounted = true;"
+        + "  var nav = performance.getEntriesByType('navigation')[0];"
+        + "  if (nav) { bytes += nav.transferSize || 0; loadTime = nav.loadEventEnd - nav.startTime; }"
+        + "  else { loadTime = performance.timing.loadEventEnd - performance.timing.navigationStart; }"
+        + " }"
+        + " var resources = performance.getEntriesByType('resource');"
+        + " for (var i = 0; i < resources.length; i++) { bytes += resources[i].transferSize || 0; }"
+        + " performance.clearResourceTimings();"
+        + " return [Math.round(bytes), Math.round(Math.max(loadTime, -1))];";
+
+    /** Url of the start page */
+    private final String m_libraryUrl;
+    /** Branches whose holdings are checked, the first one gives the status */
+    private final List<String> m_listBranches;
+    /** Browser session of this engine */
+    private final WebDriver m_driver;
+    /** Wall time spent in each page wait */
+    private final Timings m_waitTimings;
+    /** Wall time spent in each phase of a query */
+    private final Timings m_phaseTimings;
+    /** Page loads and transferred bytes of the browser */
+    private final PageStatistics m_pageStatistics;
+    /** Pool the browser session is returned to or null if owned */
+    private final SessionPool m_sessionPool;
+    /** Whether searches are opened by url instead of the search form */
+    private boolean m_urlSearch;
+    /** Number of consecutive url searches that did not open a result page */
+    private int m_urlSearchFailureCount = 0;
+
+    /**
+     * Constructor for SeleniumQueryEngine. Opens the start page in the
+     * browser unless the session is taken from a pool, which has opened
+     * it already. An owned browser is quit when the engine is closed,
+     * a pooled session is returned to the pool.
+     *
+     * @param driver         started browser session
+     * @param sessionPool    pool the session was taken from or null if
+     *                       the engine owns the browser
+     * @param libraryUrl     url of the start page
+     * @param listBranches   branches whose holdings are checked, the first
+     *                       one gives the status of the book
+     * @param urlSearch      true to open searches by url, false to use the
+     *                       search form
+     * @param waitTimings    output timings of page waits
+     * @param phaseTimings   output timings of query phases
+     * @param pageStatistics output page loads and transferred bytes
+     */
+    SeleniumQueryEngine(WebDriver      driver,
+                        SessionPool    sessionPool,
+                        String         libraryUrl,
+                        List<String>   listBranches,
+                        boolean        urlSearch,
+                        Timings        waitTimings,
+                        Timings        phaseTimings,
+                        PageStatistics pageStatistics)
+    {
+        m_driver = driver;
+        m_sessionPool = sessionPool;
+        m_libraryUrl = libraryUrl;
+        m_listBranches = listBranches;
+        m_urlSearch = urlSearch;
+        m_waitTimings = waitTimings;
+        m_phaseTimings = phaseTimings;
+        m_pageStatistics = pageStatistics;
+        if (sessionPool != null)
+        {
+            return;
+        }
+        try
+        {
+            m_driver.get(libraryUrl);
+//            WebElement localeLink = m_driver.findElement(By.linkText("FI"));
+//            localeLink.click();
+
+//            m_driver.manage().window().setPosition(new Point(0, 0));
+//            m_driver.manage().window().setSize(new Dimension(1000, 1000));
+        }
+        catch (RuntimeException e)
+        {
+            m_driver.quit();
+            throw e;
+        }
+    }
+
+    @Override
+    public BookStatus query(BookInfo book)
+        throws IOException
+    {
+        openSearch(book.getTitle(),
+                   book.getAuthor());
+
+        BookStatus status = checkExistence(book,
+                                           m_driver);
+        recordPageStatistics(m_driver);
+        if (status != null)
+        {
+            return status;
+        }
+        return BookStatus.NOT_FOUND;
+    }
+
+    @Override
+    public List<ArenaRecord> searchAuthor(String author)
+        throws IOException
+    {
+        openSearch(null,
+                   author);
+
+        List<ArenaRecord> listRecords = new ArrayList<ArenaRecord>();
+        for (int i = 0; i < MAX_RESULT_PAGES; i++)
+        {
+            List<ArenaRecord> listPageRecords = ResultListParser.parse(m_driver.getPageSource(),
+                                                                       m_driver.getCurrentUrl());
+            listRecords.addAll(listPageRecords);
+            recordPageStatistics(m_driver);
+
+            WebElement nextPageLink = findElement(m_driver,
+                                                  By.linkText(ResultListParser.NEXT_PAGE_LINK));
+            if (nextPageLink == null
+                    || listPageRecords.isEmpty())
+            {
+                break;
+            }
+            scrollAndClick(nextPageLink,
+                           m_driver);
+            waitForNextPage(m_driver,
+                            listPageRecords.get(0).getUrl());
+            waitForStableResults(m_driver);
+        }
+        return listRecords;
+    }
+
+    @Override
+    public BookStatus queryRecord(BookInfo    book,
+                                  ArenaRecord record)
+    {
+        m_driver.get(record.getHoldingsUrl());
+        book.setRecordUrl(record.getHoldingsUrl());
+
+        BookStatus status = checkHoldings(book,
+                                          m_driver);
+        recordPageStatistics(m_driver);
+        if (status != null)
+        {
+            return status;
+        }
+        return BookStatus.NOT_FOUND;
+    }
+
+    @Override
+    public void close()
+    {
+        if (m_sessionPool != null)
+        {
+            m_sessionPool.release(m_driver);
+        }
+        else
+        {
+            m_driver.quit();
+        }
+    }
+
+    /**
+     * Opens the search result page and waits until the result list is
+     * complete. The result page is loaded directly by url if possible.
+     * If the url does not lead to a result page, the search form is
+     * used for this search. After URL_SEARCH_FAILURE_LIMIT consecutive
+     * failures, e.g. because the url scheme of Arena has changed, the
+     * engine switches permanently to the search form.
+     *
+     * @param title  searched title or null to search by author only
+     * @param author searched author
+     * @throws MalformedURLException if the start page url is invalid
+     */
+    private void openSearch(String title,
+                            String author)
+        throws MalformedURLException
+    {
+        long startTime = System.currentTimeMillis();
+        if (m_urlSearch)
+        {
+            String searchUrl = ArenaSearchUrl.create(m_libraryUrl,
+                                                     title,
+                                                     author);
+            m_driver.get(searchUrl);
+            try
+            {
+                waitForResults(m_driver);
+                recordPhase(URL_SEARCH_PHASE,
+                            startTime);
+                recordPageStatistics(m_driver);
+                m_urlSearchFailureCount = 0;
+                return;
+            }
+            catch (TimeoutException e)
+            {
+                System.out.println("WARNING: Search url did not open a result page,"
+                                   + " using the search form: " + searchUrl);
+                m_urlSearchFailureCount++;
+                if (m_urlSearchFailureCount >= URL_SEARCH_FAILURE_LIMIT)
+                {
+                    System.out.println("WARNING: " + m_urlSearchFailureCount + " search urls failed in a row,"
+                                       + " using the search form for the rest of the session");
+                    m_urlSearch = false;
+                }
+                m_driver.get(m_libraryUrl);
+                startTime = System.currentTimeMillis();
+            }
+        }
+
+        search(title,
+               author,
+               m_driver);
+        waitForResults(m_driver);
+        recordPhase(FORM_SEARCH_PHASE,
+                    startTime);
+        recordPageStatistics(m_driver);
+    }
+
+    /**
+     * Records the time spent in a query phase.
+     *
+     * @param name      phase name
+     * @param startTime start time of the phase
+     * @return end time of the phase, i.e. start time of the next phase
+     */
+    private long recordPhase(String name,
+                             long   startTime)
+    {
+        long endTime = System.currentTimeMillis();
+        m_phaseTimings.record(name,
+                              endTime - startTime);
+        return endTime;
+    }
+
+    /**
+     * Records the load time of the current document and the bytes
+     * transferred since the previous call. Called before leaving each
+     * document, as the browser forgets the timings of a document when
+     * it navigates away.
+     *
+     * @param driver the driver
+     */
+    private void recordPageStatistics(WebDriver driver)
+    {
+        Object value = ((JavascriptExecutor) driver).executeScript(PAGE_STATISTICS_SCRIPT);
+        if (!(value instanceof List))
+        {
+            return;
+        }
+
+        List<?> listValues = (List<?>) value;
+        m_pageStatistics.recordTransfer(((Number) listValues.get(0)).longValue());
+        long loadTime = ((Number) listValues.get(1)).longValue();
+        if (loadTime >= 0)
+        {
+            m_pageStatistics.recordPage(loadTime);
+        }
+    }
+
+    /**
+     * Fills and submits the advanced search form. The organisation is
+     * not selected, so that the form searches the same books as the
+     * search url; the organisation is checked from the holdings.
+     *
+     * @param title  searched title or null to search by author only
+     * @param author searched author
+     * @param driver the driver
+     */
+    private void search(String title,
+                        String author,
+                        WebDriver driver) {
+        WebElement searchLink = driver.findElement(By.linkText("Tarkennettu haku"));
+        scrollTop(driver);
+        searchLink.click();
+
+        waitForElement(driver,
+                       By.name("materialPanel:mediaClassContainer:mediaClassChoice"),
+                       "media class choice");
+
+        Select categorySelect = new Select(
+            driver.findElement(By.name("materialPanel:mediaClassContainer:mediaClassChoice")));
+        categorySelect.selectByVisibleText("Kirja");
+
+        int authorRow = 0;
+        if (title != null)
+        {
+            Select titleSelect = new Select(
+                driver.findElement(By.name("freeTextFieldsContainer:freeTextView:0:freeTextPanel:freeTextTypeChoice")));
+            titleSelect.selectByVisibleText("Teos");
+            WebElement titleField =
+                 driver.findElement(By.name("freeTextFieldsContainer:freeTextView:0:freeTextPanel:freeTextField"));
+            titleField.sendKeys(title);
+            authorRow = 1;
+        }
+
+        if (author.length() > 1)
+        {
+            Select authorSelect = new Select(
+                driver.findElement(By.name("freeTextFieldsContainer:freeTextView:" + authorRow + ":freeTextPanel:freeTextTypeChoice")));
+            authorSelect.selectByVisibleText("Tekijä");
+            waitForAjaxIdle(driver,
+                            "author type");
+            WebElement authorField =
+                waitForClickable(driver,
+                                 By.name("freeTextFieldsContainer:freeTextView:" + authorRow + ":freeTextPanel:freeTextField"),
+                                 "author field");
+            authorField.sendKeys(author);
+        }
+
+        WebElement searchButton = driver.findElement(By.name("bottomButtonsContainer:bottomSearchButton"));
+        scrollAndClick(searchButton,
+                       driver);
+    }
+
+    private void scrollTop(WebDriver driver) {
+        scrollToElement(findElement(driver,
+                                    By.cssSelector(".custom-logo")),
+                        driver);
+
+    }
+
+    private void scrollAndClick(WebElement element,
+                                WebDriver driver) {
+        scrollToElement(element,
+                        driver);
+        element.click();
+    }
+
+    private void scrollToElement(WebElement element,
+                                 WebDriver driver) {
+        Actions actions = new Actions(driver);
+        actions.moveToElement(element);
+        actions.perform();
+    }
+
+    /**
+     * Waits until the search result page is shown and the result list
+     * is complete.
+     *
+     * @param driver the driver
+     */
+    private void waitForResults(WebDriver driver)
+    {
+        waitForText(driver, "Hakutulos");
+        waitForStableResults(driver);
+    }
+
+    /**
+     * Opens the record of the book best matching the search result and
+     * checks its holdings. If the result markup shows no records, the
+     * last "Saatavilla" link is clicked instead.
+     *
+     * @param book   the book
+     * @param driver the driver showing the search result
+     * @return status of the book or null if no record matches
+     * @throws IOException if a link of the result is invalid
+     */
+    private BookStatus checkExistence(BookInfo  book,
+                                      WebDriver driver)
+        throws IOException
+    {
+        long startTime = System.currentTimeMillis();
+        List<ArenaRecord> listRecords = ResultListParser.parse(driver.getPageSource(),
+                                                               driver.getCurrentUrl());
+        if (!listRecords.isEmpty())
+        {
+            ArenaRecord record = RecordMatcher.findBest(book,
+                                                        listRecords);
+            if (record == null)
+            {
+                return null;
+            }
+            driver.get(record.getHoldingsUrl());
+            recordPhase(AVAILABILITY_PHASE,
+                        startTime);
+            book.setRecordUrl(record.getHoldingsUrl());
+            return checkHoldings(book,
+                                 driver);
+        }
+
+        List<WebElement> availabilityLinks = driver.findElements(By.linkText("Saatavilla"));
+        if (availabilityLinks == null
+                || availabilityLinks.isEmpty())
+        {
+            return null;
+        }
+        String resultUrl = driver.getCurrentUrl();
+        availabilityLinks.get(availabilityLinks.size() - 1).click();
+        recordPhase(AVAILABILITY_PHASE,
+                    startTime);
+
+        BookStatus status = checkHoldings(book,
+                                          driver);
+        // an AJAX link leaves the browser on the result page
+        book.setRecordUrl(!driver.getCurrentUrl().equals(resultUrl) ? driver.getCurrentUrl() : null);
+        return status;
+    }
+
+    /**
+     * Expands the organisation and branch holdings of the record page
+     * and classifies the availability. All branches of interest are
+     * expanded on the same record page.
+     *
+     * @param book   the book
+     * @param driver the driver showing the record page
+     * @return status of the book or null if the holdings are not found
+     */
+    private BookStatus checkHoldings(BookInfo  book,
+                                     WebDriver driver)
+    {
+        long phaseStartTime = System.currentTimeMillis();
+        waitForText(driver, "Tampereen kaupunginkirjasto");
+        WebElement tampereAvailabilityLink = findElement(driver,
+                                                         By.linkText("Tampereen kaupunginkirjasto"));
+        if (tampereAvailabilityLink == null)
+        {
+            return null;
+        }
+//        scrollAndClick(tampereAvailabilityLink,
+//                       driver);
+        scrollToReview(driver);
+        tampereAvailabilityLink.click();
+        phaseStartTime = recordPhase(ORGANISATION_PHASE,
+                                     phaseStartTime);
+
+        // the branch links are loaded into the organisation container;
+        // the first branch may not hold the book at all
+        waitForElement(driver,
+                       By.xpath("//span[text()='Tampereen kaupunginkirjasto']/../../following-sibling::div[@class='arena-holding-child-hyper-container']"
+                                + "//a"),
+                       "'Tampereen kaupunginkirjasto' branches");
+        for (String branch : m_listBranches)
+        {
+            // a branch without a link does not hold the book
+            WebElement branchAvailabilityLink = findElement(driver,
+                                                            By.linkText(branch));
+            if (branchAvailabilityLink == null)
+            {
+                continue;
+            }
+            scrollToReview(driver);
+            scrollAndClick(branchAvailabilityLink,
+                           driver);
+            waitForElement(driver,
+                           By.xpath("//span[text()='" + branch + "']/../../following-sibling::div[@class='arena-holding-child-hyper-container']"
+                                    + "//span[contains(text(), 'Osasto:')]"),
+                           "'" + branch + "' holdings");
+        }
+        phaseStartTime = recordPhase(BRANCH_PHASE,
+                                     phaseStartTime);
+
+        try
+        {
+            return readHoldings(book,
+                                driver);
+        }
+        finally
+        {
+            recordPhase(HOLDINGS_PHASE,
+                        phaseStartTime);
+        }
+    }
+
+    /**
+     * Reads the holdings values of the expanded branches from one page
+     * source snapshot instead of looking up each value in the browser.
+     *
+     * @param book   the book
+     * @param driver the driver showing the expanded holdings
+     * @return status of the book or null if the holdings are not found
+     */
+    private BookStatus readHoldings(BookInfo  book,
+                                    WebDriver driver)
+    {
+        Map<String, Holdings> mapHoldings = HoldingsParser.parse(driver.getPageSource(),
+                                                                 m_listBranches);
+        book.setBranchHoldings(mapHoldings);
+
+        Holdings holdings = mapHoldings.get(m_listBranches.get(0));
+        if (holdings == null)
+        {
+            return null;
+        }
+
+        BookStatus status = holdings.getStatus();
+        if (status == BookStatus.NOT_FOUND)
+        {
+            return null;
+        }
+        if (status == BookStatus.AVAILABLE)
+        {
+            book.setRealLocation(holdings.getShelfMark());
+        }
+        return status;
+    }
+
+    private void scrollToReview(WebDriver driver) {
+        scrollToElement(findElement(driver,
+                                    By.cssSelector(".arena-review-subtitle")),
+                        driver);
+    }
+
+    private WebElement findElement(WebDriver driver,
+                                   By by)
+    {
+        try
+        {
+            return driver.findElement(by);
+        }
+        catch (NoSuchElementException e)
+        {
+            return null;
+        }
+    }
+
+    private void waitForText(WebDriver driver,
+                             final String text)
+    {
+        final By by = By.xpath("//span[contains(text(), '" + text + "')]");
+        waitForElement(driver,
+                       by,
+                       "'" + text + "'");
+    }
+
+    private void waitForElement(WebDriver driver,
+                                final By by,
+                                String name) {
+        waitUntil(driver,
+                  name,
+                  new ExpectedCondition<Boolean>() {
+            @Override
+            public Boolean apply(WebDriver d) {
+                return d.findElement(by) != null;
+            }
+        });
+    }
+
+    private WebElement waitForClickable(WebDriver driver,
+                                        By by,
+                                        String name) {
+        return waitUntil(driver,
+                         name,
+                         ExpectedConditions.elementToBeClickable(by));
+    }
+
+    private void waitForAjaxIdle(WebDriver driver,
+                                 String name) {
+        waitUntil(driver,
+                  name,
+                  new ExpectedCondition<Boolean>() {
+            @Override
+            public Boolean apply(WebDriver d) {
+                return isAjaxIdle(d);
+            }
+        });
+    }
+
+    /**
+     * Waits until AJAX requests have completed and the number of
+     * "Saatavilla" links has stayed the same for RESULT_STABLE_TIME,
+     * as the availability links are loaded after the result list.
+     *
+     * @param driver the driver
+     */
+    private void waitForStableResults(WebDriver driver) {
+        waitUntil(driver,
+                  "result list",
+                  new ExpectedCondition<Boolean>() {
+            private int m_lastCount = -1;
+            private long m_lastChangeTime = 0;
+
+            @Override
+            public Boolean apply(WebDriver d) {
+                long now = System.currentTimeMillis();
+                if (!isAjaxIdle(d))
+                {
+                    m_lastCount = -1;
+                    return false;
+                }
+
+                int count = d.findElements(By.linkText("Saatavilla")).size();
+                if (count != m_lastCount)
+                {
+                    m_lastCount = count;
+                    m_lastChangeTime = now;
+                    return false;
+                }
+                return now - m_lastChangeTime >= RESULT_STABLE_TIME;
+            }
+        });
+    }
+
+    /**
+     * Waits until the result list no longer starts with the given record,
+     * i.e. the next result page has replaced the current one.
+     *
+     * @param driver         the driver
+     * @param firstRecordUrl url of the first record of the current page
+     */
+    private void waitForNextPage(WebDriver driver,
+                                 final String firstRecordUrl) {
+        waitUntil(driver,
+                  "next result page",
+                  new ExpectedCondition<Boolean>() {
+            @Override
+            public Boolean apply(WebDriver d) {
+                try
+                {
+                    List<ArenaRecord> listRecords = ResultListParser.parse(d.getPageSource(),
+                                                                           d.getCurrentUrl());
+                    return !listRecords.isEmpty()
+                        && !listRecords.get(0).getUrl().equals(firstRecordUrl);
+                }
+                catch (IOException e)
+                {
+                    return false;
+                }
+            }
+        });
+    }
+
+    private boolean isAjaxIdle(WebDriver driver) {
+        return Boolean.TRUE.equals(((JavascriptExecutor) driver).executeScript(AJAX_IDLE_SCRIPT));
+    }
+
+    /**
+     * Polls the condition until it is fulfilled and records the time
+     * spent in waiting.
+     *
+     * @param driver    the driver
+     * @param name      name of the wait in timing output
+     * @param condition the condition
+     * @return value returned by the condition
+     */
+    private <T> T waitUntil(WebDriver driver,
+                            String name,
+                            ExpectedCondition<T> condition) {
+        long startTime = System.currentTimeMillis();
+        try
+        {
+            return new FluentWait<WebDriver>(driver)
+                .withTimeout(WAIT_TIMEOUT, TimeUnit.SECONDS)
+                .pollingEvery(POLL_INTERVAL, TimeUnit.MILLISECONDS)
+                .ignoring(NoSuchElementException.class)
+                .ignoring(StaleElementReferenceException.class)
+                .until(condition);
+        }
+        finally
+        {
+            m_waitTimings.record(name,
+                                 System.currentTimeMillis() - startTime);
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package fi.iki.harrin.library;
+
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.openqa.selenium.Capabilities;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.remote.RemoteWebDriver;
+
+/**
+ * Pool of browser sessions of a long-lived Selenium server. The sessions
+ * are started in the background and opened on the start page before
+ * they are needed, so that a query engine taking a session can query at
+ * once. A returned session is opened on the start page again and kept
+ * for the next engine, a dead one is replaced. One session more than
+ * the number of workers is kept, so that a dead session can be replaced
+ * without waiting. Can be shared by several workers.
+ *
+ * @author $Author: $
+ */
+class SessionPool
+{
+    /** Number of session starts an engine tries before giving up */
+    private static final int START_ATTEMPTS = 3;
+
+    /** Url of the Selenium server */
+    private final URL m_serverUrl;
+    /** Capabilities of the started browsers */
+    private final Capabilities m_capabilities;
+    /** Url of the start page */
+    private final String m_startUrl;
+    /** Number of sessions kept */
+    private final int m_size;
+    /** Starts the sessions */
+    private final ExecutorService m_executor = Executors.newCachedThreadPool();
+    /** Warm sessions waiting for an engine */
+    private final Deque<WebDriver> m_idleSessions = new ArrayDeque<WebDriver>();
+    /** Number of sessions being started */
+    private int m_startingCount = 0;
+    /** Failure of the latest session start or null if it succeeded */
+    private RuntimeException m_startFailure = null;
+    /** Whether the pool has been closed */
+    private boolean m_closed = false;
+    /** Number of sessions started */
+    private int m_startedCount = 0;
+    /** Total time of starting the sessions */
+    private long m_startTime = 0;
+    /** Number of sessions taken */
+    private int m_takenCount = 0;
+    /** Total time engines waited for a session */
+    private long m_waitTime = 0;
+    /** Number of dead sessions replaced */
+    private int m_replacedCount = 0;
+
+    /**
+     * Constructor for SessionPool.
+     *
+     * @param serverUrl    url of the Selenium server
+     * @param capabilities capabilities of the started browsers
+     * @param startUrl     url of the start page
+     * @param size         number of sessions kept
+     */
+    SessionPool(URL          serverUrl,
+                Capabilities capabilities,
+                String       startUrl,
+                int          size)
+    {
+        m_serverUrl = serverUrl;
+        m_capabilities = capabilities;
+        m_startUrl = startUrl;
+        m_size = size;
+    }
+
+    /**
+     * Starts warming the sessions in the background.
+     */
+    synchronized void start()
+    {
+        for (int i = 0; i < m_size; i++)
+        {
+            startSession();
+        }
+    }
+
+    /**
+     * Takes a warm session, waiting until one has been started. After a
+     * failed start, a new session is started up to START_ATTEMPTS
+     * times before giving up.
+     *
+     * @return session opened on the start page
+     * @throws InterruptedException if interrupted while waiting
+     * @throws WebDriverException if no session can be started
+     */
+    synchronized WebDriver take()
+        throws InterruptedException
+    {
+        long startTime = System.currentTimeMillis();
+        int attemptCount = 0;
+        while (m_idleSessions.isEmpty())
+        {
+            if (m_closed)
+            {
+                throw new WebDriverException("Session pool closed");
+            }
+            if (m_startingCount == 0)
+            {
+                if (m_startFailure != null)
+                {
+                    if (attemptCount >= START_ATTEMPTS)
+                    {
+                        throw new WebDriverException("Cannot start a session at " + m_serverUrl,
+                                                     m_startFailure);
+                    }
+                    m_startFailure = null;
+                }
+                startSession();
+                attemptCount++;
+            }
+            wait();
+        }
+
+        m_takenCount++;
+        m_waitTime += System.currentTimeMillis() - startTime;
+        return m_idleSessions.removeFirst();
+    }
+
+    /**
+     * Returns a session taken from the pool. The session is opened on
+     * the start page for the next engine. A session failing to open the
+     * page is replaced.
+     *
+     * @param driver the session
+     */
+    void release(WebDriver driver)
+    {
+        synchronized (this)
+        {
+            if (m_closed)
+            {
+                quit(driver);
+                return;
+            }
+        }
+
+        try
+        {
+            driver.get(m_startUrl);
+        }
+        catch (RuntimeException e)
+        {
+            System.out.println("Replacing dead browser session: " + e);
+            synchronized (this)
+            {
+                m_replacedCount++;
+                if (!m_closed)
+                {
+                    startSession();
+                }
+            }
+            quit(driver);
+            return;
+        }
+
+        synchronized (this)
+        {
+            if (!m_closed)
+            {
+                m_idleSessions.addLast(driver);
+                notifyAll();
+                return;
+            }
+        }
+        quit(driver);
+    }
+
+    /**
+     * Quits the idle sessions. Sessions still taken are quit when
+     * returned.
+     */
+    void close()
+    {
+        Deque<WebDriver> idleSessions;
+        synchronized (this)
+        {
+            m_closed = true;
+            idleSessions = new ArrayDeque<WebDriver>(m_idleSessions);
+            m_idleSessions.clear();
+            notifyAll();
+        }
+        m_executor.shutdown();
+
+        for (WebDriver driver : idleSessions)
+        {
+            quit(driver);
+        }
+    }
+
+    /**
+     * Prints the number of sessions started and the time engines waited
+     * for them.
+     */
+    synchronized void printStatistics()
+    {
+        System.out.println("");
+        System.out.println("Session pool: started=" + m_startedCount
+                           + " (avg " + (m_startedCount > 0 ? m_startTime / m_startedCount : 0) + " ms)"
+                           + " taken=" + m_takenCount
+                           + " (avg wait " + (m_takenCount > 0 ? m_waitTime / m_takenCount : 0) + " ms)"
+                           + " replaced=" + m_replacedCount);
+    }
+
+    /**
+     * Starts one session in the background. Called holding the lock.
+     */
+    private void startSession()
+    {
+        m_startingCount++;
+        m_executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                runStart();
+            }
+        });
+    }
+
+    /**
+     * Starts a session and opens the start page.
+     */
+    private void runStart()
+    {
+        long startTime = System.currentTimeMillis();
+        WebDriver driver = null;
+        try
+        {
+            driver = new RemoteWebDriver(m_serverUrl,
+                                         m_capabilities);
+            driver.get(m_startUrl);
+        }
+        catch (RuntimeException e)
+        {
+            System.out.println("ERROR: cannot start browser session: " + e);
+            if (driver != null)
+            {
+                quit(driver);
+            }
+            synchronized (this)
+            {
+                m_startingCount--;
+                m_startFailure = e;
+                notifyAll();
+            }
+            return;
+        }
+
+        synchronized (this)
+        {
+            m_startingCount--;
+            m_startFailure = null;
+            if (!m_closed)
+            {
+                m_startedCount++;
+                m_startTime += System.currentTimeMillis() - startTime;
+                m_idleSessions.addLast(driver);
+                notifyAll();
+                return;
+            }
+        }
+        quit(driver);
+    }
+
+    /**
+     * Quits a session. A dead session may fail to quit, which is
+     * ignored.
+     *
+     * @param driver the session
+     */
+    private static void quit(WebDriver driver)
+    {
+        try
+        {
+            driver.quit();
+        }
+        catch (RuntimeException e)
+        {
+            // the session is gone anyway
+        }
+    }
+}
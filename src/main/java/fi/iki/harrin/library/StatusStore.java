@@ -0,0 +1,394 @@
+package fi.iki.harrin.library;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * On-disk store of the latest status of every book checked, so that a
+ * run can be compared with the previous one. Unlike the cache, entries
+ * never expire: a book keeps its entry even if it is missing from the
+ * checked list.
+ *
+ * The file has one tab separated line per book: key, status, real
+ * location, time the status was first seen and time of the latest check.
+ *
+ * @author $Author: $
+ */
+class StatusStore
+{
+    /** Store file */
+    private final File m_file;
+    /** Entries by book key in first stored order */
+    private final Map<String, StoredStatus> m_entries = new LinkedHashMap<String, StoredStatus>();
+
+    /**
+     * Constructor for StatusStore. Reads the store file if it exists.
+     *
+     * @param file store file
+     * @throws IOException if reading fails
+     */
+    StatusStore(File file)
+        throws IOException
+    {
+        m_file = file;
+        if (file.exists())
+        {
+            read();
+        }
+    }
+
+    /**
+     * Stores the status of a checked book. A failed or skipped check
+     * tells nothing about the book and keeps the previous entry.
+     *
+     * @param book      the book
+     * @param status    result of the check or null if skipped
+     * @param checkTime time of the check
+     * @return the change from the previous run or null if the book is
+     *         new or nothing changed
+     */
+    synchronized StatusChange update(BookInfo   book,
+                                     BookStatus status,
+                                     long       checkTime)
+    {
+        if (status == null
+                || status == BookStatus.FAILED)
+        {
+            return null;
+        }
+
+        StoredStatus previous = m_entries.get(book.getKey());
+        String realLocation = book.getRealLocation();
+        boolean statusChanged = previous != null && previous.m_status != status;
+        m_entries.put(book.getKey(),
+                      new StoredStatus(status,
+                                       realLocation,
+                                       previous != null && !statusChanged ? previous.m_since : checkTime,
+                                       checkTime));
+
+        if (previous == null)
+        {
+            return null;
+        }
+        if (!statusChanged
+                && (realLocation.length() == 0
+                    || previous.m_realLocation.length() == 0
+                    || realLocation.equals(previous.m_realLocation)))
+        {
+            return null;
+        }
+
+        return new StatusChange(book,
+                                previous.m_status,
+                                status,
+                                previous.m_realLocation,
+                                realLocation,
+                                previous.m_checkTime,
+                                checkTime);
+    }
+
+    /**
+     * Gets the stored status of a book.
+     *
+     * @param book the book
+     * @return the entry or null if the book has not been checked
+     */
+    synchronized StoredStatus lookup(BookInfo book)
+    {
+        return m_entries.get(book.getKey());
+    }
+
+    /**
+     * Writes the store file.
+     *
+     * @throws IOException if writing fails
+     */
+    synchronized void save()
+        throws IOException
+    {
+        File tempFile = new File(m_file.getPath() + ".tmp");
+        BufferedWriter writer = null;
+        try
+        {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), "UTF-8"));
+            for (Map.Entry<String, StoredStatus> mapEntry : m_entries.entrySet())
+            {
+                StoredStatus entry = mapEntry.getValue();
+                writer.write(mapEntry.getKey() + "\t"
+                             + entry.m_status.name() + "\t"
+                             + entry.m_realLocation.replace('\t', ' ') + "\t"
+                             + entry.m_since + "\t"
+                             + entry.m_checkTime);
+                writer.newLine();
+            }
+        }
+        finally
+        {
+            if (writer != null)
+            {
+                writer.close();
+            }
+        }
+
+        if (!tempFile.renameTo(m_file))
+        {
+            m_file.delete();
+            if (!tempFile.renameTo(m_file))
+            {
+                throw new IOException("Cannot replace " + m_file);
+            }
+        }
+    }
+
+    /**
+     * Reads the store file.
+     *
+     * @throws IOException if reading fails
+     */
+    private void read()
+        throws IOException
+    {
+        BufferedReader reader = null;
+        try
+        {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(m_file), "UTF-8"));
+
+            String inputLine;
+            while ((inputLine = reader.readLine()) != null)
+            {
+                String[] fields = inputLine.split("\t", -1);
+                if (fields.length != 5)
+                {
+                    continue;
+                }
+
+                try
+                {
+                    m_entries.put(fields[0],
+                                  new StoredStatus(BookStatus.valueOf(fields[1]),
+                                                   fields[2],
+                                                   Long.parseLong(fields[3]),
+                                                   Long.parseLong(fields[4])));
+                }
+                catch (IllegalArgumentException e)
+                {
+                    // skip lines written by another version
+                }
+            }
+        }
+        finally
+        {
+            if (reader != null)
+            {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Stored status of one book.
+     */
+    static final class StoredStatus
+    {
+        /** Status of the book */
+        private final BookStatus m_status;
+        /** Real location of the book */
+        private final String m_realLocation;
+        /** Time the status was first seen */
+        private final long m_since;
+        /** Time of the latest check */
+        private final long m_checkTime;
+
+        /**
+         * Constructor for StoredStatus.
+         *
+         * @param status       status of the book
+         * @param realLocation real location of the book
+         * @param since        time the status was first seen
+         * @param checkTime    time of the latest check
+         */
+        StoredStatus(BookStatus status,
+                     String     realLocation,
+                     long       since,
+                     long       checkTime)
+        {
+            m_status = status;
+            m_realLocation = realLocation;
+            m_since = since;
+            m_checkTime = checkTime;
+        }
+
+        /**
+         * Gets the value.
+         *
+         * @return the value
+         */
+        BookStatus getStatus()
+        {
+            return m_status;
+        }
+
+        /**
+         * Gets the time the status was first seen.
+         *
+         * @return the value
+         */
+        long getSince()
+        {
+            return m_since;
+        }
+
+        /**
+         * Gets the time of the latest check.
+         *
+         * @return the value
+         */
+        long getCheckTime()
+        {
+            return m_checkTime;
+        }
+    }
+
+    /**
+     * Change of a book between two runs: a new status or a moved shelf
+     * mark.
+     */
+    static final class StatusChange
+    {
+        /** The book */
+        private final BookInfo m_book;
+        /** Status in the previous run */
+        private final BookStatus m_previousStatus;
+        /** Status in this run */
+        private final BookStatus m_status;
+        /** Real location in the previous run */
+        private final String m_previousLocation;
+        /** Real location in this run */
+        private final String m_location;
+        /** Time of the previous check */
+        private final long m_previousCheckTime;
+        /** Time of this check */
+        private final long m_checkTime;
+
+        /**
+         * Constructor for StatusChange.
+         *
+         * @param book              the book
+         * @param previousStatus    status in the previous run
+         * @param status            status in this run
+         * @param previousLocation  real location in the previous run
+         * @param location          real location in this run
+         * @param previousCheckTime time of the previous check
+         * @param checkTime         time of this check
+         */
+        StatusChange(BookInfo   book,
+                     BookStatus previousStatus,
+                     BookStatus status,
+                     String     previousLocation,
+                     String     location,
+                     long       previousCheckTime,
+                     long       checkTime)
+        {
+            m_book = book;
+            m_previousStatus = previousStatus;
+            m_status = status;
+            m_previousLocation = previousLocation;
+            m_location = location;
+            m_previousCheckTime = previousCheckTime;
+            m_checkTime = checkTime;
+        }
+
+        /**
+         * Gets the value.
+         *
+         * @return the value
+         */
+        BookInfo getBook()
+        {
+            return m_book;
+        }
+
+        /**
+         * Gets the value.
+         *
+         * @return the value
+         */
+        BookStatus getPreviousStatus()
+        {
+            return m_previousStatus;
+        }
+
+        /**
+         * Gets the value.
+         *
+         * @return the value
+         */
+        BookStatus getStatus()
+        {
+            return m_status;
+        }
+
+        /**
+         * Gets the value.
+         *
+         * @return the value
+         */
+        String getPreviousLocation()
+        {
+            return m_previousLocation;
+        }
+
+        /**
+         * Gets the value.
+         *
+         * @return the value
+         */
+        String getLocation()
+        {
+            return m_location;
+        }
+
+        /**
+         * Gets the value.
+         *
+         * @return the value
+         */
+        long getPreviousCheckTime()
+        {
+            return m_previousCheckTime;
+        }
+
+        /**
+         * Gets the value.
+         *
+         * @return the value
+         */
+        long getCheckTime()
+        {
+            return m_checkTime;
+        }
+
+        /**
+         * Describes the change, e.g. "NOT AVAILABLE -> AVAILABLE" or
+         * "moved 84.2 MAN -> 84.2 HER".
+         *
+         * @return the description
+         */
+        String getDescription()
+        {
+            if (m_previousStatus != m_status)
+            {
+                return m_previousStatus.getLabel() + " -> " + m_status.getLabel();
+            }
+            return "moved " + m_previousLocation + " -> " + m_location;
+        }
+    }
+}
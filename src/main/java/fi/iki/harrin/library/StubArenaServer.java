@@ -0,0 +1,316 @@
+package fi.iki.harrin.library;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local HTTP server serving recorded Arena pages, so that the query
+ * engines can be run without the real library server.
+ *
+ * The page directory contains the recorded pages and a rule file
+ * pages.txt. Each rule line has a regular expression and a file name
+ * separated by a tab. The first rule matching the decoded request path
+ * and query selects the served file. Empty lines and lines starting with
+ * '#' are ignored. Files ending with .xml are served as AJAX responses.
+ *
+ * Each response can be delayed to simulate the latency of the real
+ * server. Requests are served in parallel, so that the delay does not
+ * serialize concurrent workers.
+ *
+ * @author $Author: $
+ */
+class StubArenaServer
+{
+    /** Name of the rule file in page directory */
+    static final String RULE_FILE = "pages.txt";
+    /** Origin of the recorded pages replaced by the stub origin */
+    static final String RECORDED_ORIGIN = "https://piki.verkkokirjasto.fi";
+    /** Start page path */
+    static final String START_PAGE = "/web/arena/tarkennettu_haku";
+
+    /** The server */
+    private final HttpServer m_server;
+    /** Runs the request handlers */
+    private final ExecutorService m_executor = Executors.newCachedThreadPool();
+    /** Delay of each response in milliseconds */
+    private final long m_latency;
+    /** Rules in file order */
+    private final List<Rule> m_rules = new ArrayList<Rule>();
+
+    /**
+     * Constructor for StubArenaServer.
+     *
+     * @param pageDirectory directory of the recorded pages
+     * @param port          listened port, 0 for any free port
+     * @param latency       delay of each response in milliseconds
+     * @throws IOException if reading the pages or binding the port fails
+     */
+    StubArenaServer(File pageDirectory,
+                    int  port,
+                    long latency)
+        throws IOException
+    {
+        m_latency = latency;
+        readRules(pageDirectory);
+
+        m_server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        m_server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        });
+        m_server.setExecutor(m_executor);
+    }
+
+    /**
+     * Starts the server. Command line parameters are the page directory
+     * and optionally the port and the response latency.
+     *
+     * @param args [0] page directory, [1] port, [2] latency in milliseconds
+     */
+    public static void main(String[] args)
+    {
+        if (args == null
+                || args.length < 1 || args.length > 3)
+        {
+            System.out.println("Usage: StubArenaServer pagedir [port [latency]]");
+            System.exit(1);
+        }
+
+        try
+        {
+            StubArenaServer server = new StubArenaServer(new File(args[0]),
+                                                         args.length > 1 ? Integer.parseInt(args[1]) : 0,
+                                                         args.length > 2 ? Long.parseLong(args[2]) : 0);
+            server.start();
+            System.out.println("Serving " + args[0] + " at " + server.getLibraryUrl());
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Starts serving requests.
+     */
+    void start()
+    {
+        m_server.start();
+    }
+
+    /**
+     * Stops the server.
+     */
+    void stop()
+    {
+        m_server.stop(0);
+        m_executor.shutdown();
+    }
+
+    /**
+     * Gets the start page url to be used instead of the real one.
+     *
+     * @return the url
+     */
+    String getLibraryUrl()
+    {
+        return getOrigin() + START_PAGE;
+    }
+
+    /**
+     * Gets the origin of the server.
+     *
+     * @return the origin
+     */
+    private String getOrigin()
+    {
+        return "http://localhost:" + m_server.getAddress().getPort();
+    }
+
+    /**
+     * Serves one request.
+     *
+     * @param exchange the request
+     * @throws IOException if writing the response fails
+     */
+    private void serve(HttpExchange exchange)
+        throws IOException
+    {
+        try
+        {
+            String request = exchange.getRequestURI().getRawPath();
+            if (exchange.getRequestURI().getRawQuery() != null)
+            {
+                request += "?" + exchange.getRequestURI().getRawQuery();
+            }
+            request = URLDecoder.decode(request, "UTF-8");
+
+            if (m_latency > 0)
+            {
+                Thread.sleep(m_latency);
+            }
+
+            Rule rule = findRule(request);
+            if (rule == null)
+            {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            byte[] content = rule.m_content.replace(RECORDED_ORIGIN, getOrigin()).getBytes("UTF-8");
+            exchange.getResponseHeaders().set("Content-Type",
+                                              rule.m_fileName.endsWith(".xml")
+                                                  ? "text/xml; charset=UTF-8"
+                                                  : "text/html; charset=UTF-8");
+            exchange.sendResponseHeaders(200, content.length);
+            OutputStream output = exchange.getResponseBody();
+            output.write(content);
+            output.close();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Finds the first rule matching the request.
+     *
+     * @param request decoded path and query
+     * @return the rule or null
+     */
+    private Rule findRule(String request)
+    {
+        for (Rule rule : m_rules)
+        {
+            if (rule.m_pattern.matcher(request).matches())
+            {
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the rule file and the pages it refers to.
+     *
+     * @param pageDirectory directory of the recorded pages
+     * @throws IOException if reading fails
+     */
+    private void readRules(File pageDirectory)
+        throws IOException
+    {
+        BufferedReader reader = null;
+        try
+        {
+            reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(new File(pageDirectory, RULE_FILE)), "UTF-8"));
+
+            String inputLine;
+            while ((inputLine = reader.readLine()) != null)
+            {
+                if (inputLine.trim().length() == 0
+                        || inputLine.startsWith("#"))
+                {
+                    continue;
+                }
+
+                String[] fields = inputLine.split("\t");
+                if (fields.length != 2)
+                {
+                    throw new IOException("Invalid rule in " + RULE_FILE + ": " + inputLine);
+                }
+                m_rules.add(new Rule(Pattern.compile(fields[0]),
+                                     fields[1],
+                                     readFile(new File(pageDirectory, fields[1]))));
+            }
+        }
+        finally
+        {
+            if (reader != null)
+            {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Reads a page file.
+     *
+     * @param file the file
+     * @return content of the file
+     * @throws IOException if reading fails
+     */
+    private static String readFile(File file)
+        throws IOException
+    {
+        InputStream input = new FileInputStream(file);
+        try
+        {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = input.read(buffer)) != -1)
+            {
+                output.write(buffer, 0, count);
+            }
+            return output.toString("UTF-8");
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    /**
+     * Maps requests to a recorded page.
+     */
+    private static final class Rule
+    {
+        /** Matches the decoded request path and query */
+        private final Pattern m_pattern;
+        /** Name of the page file */
+        private final String m_fileName;
+        /** Content of the page file */
+        private final String m_content;
+
+        /**
+         * Constructor for Rule.
+         *
+         * @param pattern  matches the decoded request path and query
+         * @param fileName name of the page file
+         * @param content  content of the page file
+         */
+        Rule(Pattern pattern,
+             String  fileName,
+             String  content)
+        {
+            m_pattern = pattern;
+            m_fileName = fileName;
+            m_content = content;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package fi.iki.harrin.library;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Plans a run looking for a target number of available books instead
+ * of checking the whole list. The books, optionally only those whose
+ * shelf number starts with given prefixes, are checked in the order of
+ * their estimated chance of being available, estimated from the status
+ * of the previous runs: a book found available recently comes first, a
+ * book checked out long ago before one checked out lately, a missing
+ * book last. Books without history are placed in the middle. Counts the
+ * available books found. Can be shared by several workers.
+ *
+ * @author $Author: $
+ */
+class TargetPlanner
+{
+    /** Days in milliseconds */
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+    /** Chance of a book without history */
+    private static final double UNKNOWN_CHANCE = 0.5;
+    /** Time the chance of an available book halves toward unknown */
+    private static final long AVAILABLE_HALF_LIFE = 7 * DAY;
+    /** Typical loan period, after which a checked out book is likely back */
+    private static final long LOAN_PERIOD = 28 * DAY;
+    /** Chance of a book just checked out */
+    private static final double CHECKED_OUT_CHANCE = 0.1;
+    /** Chance of a book being acquired */
+    private static final double ORDERED_CHANCE = 0.05;
+    /** Chance of a book not found */
+    private static final double NOT_FOUND_CHANCE = 0.02;
+
+    /** Number of available books wanted */
+    private final int m_target;
+    /** Shelf number prefixes of the books checked, empty for all books */
+    private final List<String> m_listShelfPrefixes;
+    /** Statuses of the previous runs or null if not known */
+    private final StatusStore m_statusStore;
+    /** Estimated chance by planned book */
+    private final Map<BookInfo, Double> m_chances = new IdentityHashMap<BookInfo, Double>();
+    /** Planned books in book list order */
+    private final List<BookInfo> m_listBooks = new ArrayList<BookInfo>();
+    /** Number of available books found */
+    private int m_availableCount = 0;
+
+    /**
+     * Constructor for TargetPlanner.
+     *
+     * @param target            number of available books wanted
+     * @param listShelfPrefixes shelf number prefixes of the books checked,
+     *                          empty to check all books
+     * @param statusStore       statuses of the previous runs or null
+     */
+    TargetPlanner(int          target,
+                  List<String> listShelfPrefixes,
+                  StatusStore  statusStore)
+    {
+        m_target = target;
+        m_listShelfPrefixes = listShelfPrefixes;
+        m_statusStore = statusStore;
+    }
+
+    /**
+     * Tells whether the book is on the shelves of interest. A book
+     * without a shelf number is on none of them.
+     *
+     * @param book the book
+     * @return true if the book is checked
+     */
+    boolean isIncluded(BookInfo book)
+    {
+        if (m_listShelfPrefixes.isEmpty())
+        {
+            return true;
+        }
+        // the list may end before the shelf number of the last book
+        if (book.getShelfNumber() == null)
+        {
+            return false;
+        }
+
+        String shelfNumber = book.getShelfNumber().trim().toLowerCase();
+        for (String prefix : m_listShelfPrefixes)
+        {
+            if (shelfNumber.startsWith(prefix.toLowerCase()))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds a book to be checked.
+     *
+     * @param book the book
+     */
+    void add(BookInfo book)
+    {
+        m_chances.put(book,
+                      estimate(book, System.currentTimeMillis()));
+        m_listBooks.add(book);
+    }
+
+    /**
+     * Gets the planned books, the most likely available first. Books of
+     * equal chance keep the book list order.
+     *
+     * @return the books
+     */
+    List<BookInfo> getBooks()
+    {
+        List<BookInfo> listBooks = new ArrayList<BookInfo>(m_listBooks);
+        Collections.sort(listBooks, new Comparator<BookInfo>() {
+            @Override
+            public int compare(BookInfo book1, BookInfo book2) {
+                return Double.compare(m_chances.get(book2), m_chances.get(book1));
+            }
+        });
+        return listBooks;
+    }
+
+    /**
+     * Counts a result.
+     *
+     * @param status result of a book
+     * @return true if the result met the target
+     */
+    synchronized boolean countResult(BookStatus status)
+    {
+        if (status != BookStatus.AVAILABLE)
+        {
+            return false;
+        }
+        m_availableCount++;
+        return m_availableCount == m_target;
+    }
+
+    /**
+     * Tells whether the target has been met.
+     *
+     * @return true if enough available books have been found
+     */
+    synchronized boolean isMet()
+    {
+        return m_availableCount >= m_target;
+    }
+
+    /**
+     * Gets the value.
+     *
+     * @return the value
+     */
+    int getTarget()
+    {
+        return m_target;
+    }
+
+    /**
+     * Estimates the chance of a book being available from its status in
+     * the previous runs.
+     *
+     * @param book the book
+     * @param now  current time
+     * @return chance from 0 to 1
+     */
+    private double estimate(BookInfo book,
+                            long     now)
+    {
+        StatusStore.StoredStatus stored = m_statusStore != null ? m_statusStore.lookup(book) : null;
+        if (stored == null)
+        {
+            return UNKNOWN_CHANCE;
+        }
+
+        BookStatus status = stored.getStatus();
+        if (status == BookStatus.AVAILABLE)
+        {
+            // may have been checked out since
+            double age = Math.max(0, now - stored.getCheckTime());
+            return UNKNOWN_CHANCE
+                + (1 - UNKNOWN_CHANCE) * Math.pow(0.5, age / AVAILABLE_HALF_LIFE);
+        }
+        if (status == BookStatus.NOT_AVAILABLE)
+        {
+            double loanTime = Math.max(0, now - stored.getSince());
+            return CHECKED_OUT_CHANCE
+                + (UNKNOWN_CHANCE - CHECKED_OUT_CHANCE) * Math.min(1, loanTime / LOAN_PERIOD);
+        }
+        if (status == BookStatus.ORDERED)
+        {
+            return ORDERED_CHANCE;
+        }
+        return NOT_FOUND_CHANCE;
+    }
+}
@@ -0,0 +1,261 @@
+package fi.iki.harrin.library;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Collects wall time spent in named operations, e.g. page waits, so that
+ * the cost of each operation can be printed at the end of the run.
+ * The count, total and maximum are exact. The percentiles are computed
+ * from a uniform random sample of at most MAX_SAMPLES executions per
+ * operation, so that a long watch run does not grow without bound. Can
+ * be shared by several workers.
+ *
+ * @author $Author: $
+ */
+class Timings
+{
+    /** Number of executions sampled for the percentiles of an operation */
+    private static final int MAX_SAMPLES = 4096;
+
+    /** Recorded timings by operation name in first seen order */
+    private final Map<String, Timing> m_timings = new LinkedHashMap<String, Timing>();
+    /** Chooses the sampled executions */
+    private final Random m_random = new Random();
+
+    /**
+     * Records one execution of an operation.
+     *
+     * @param name         operation name
+     * @param milliseconds elapsed time
+     */
+    synchronized void record(String name,
+                             long   milliseconds)
+    {
+        Timing timing = m_timings.get(name);
+        if (timing == null)
+        {
+            timing = new Timing();
+            m_timings.put(name, timing);
+        }
+
+        timing.m_count++;
+        timing.m_total += milliseconds;
+        timing.m_max = Math.max(timing.m_max, milliseconds);
+
+        if (timing.m_sampleCount < MAX_SAMPLES)
+        {
+            if (timing.m_sampleCount == timing.m_samples.length)
+            {
+                timing.m_samples = Arrays.copyOf(timing.m_samples,
+                                                 timing.m_samples.length * 2);
+            }
+            timing.m_samples[timing.m_sampleCount++] = milliseconds;
+            return;
+        }
+
+        // reservoir sampling keeps each execution with equal chance
+        int index = m_random.nextInt(timing.m_count);
+        if (index < MAX_SAMPLES)
+        {
+            timing.m_samples[index] = milliseconds;
+        }
+    }
+
+    /**
+     * Summarizes the recorded timings.
+     *
+     * @return summaries of the operations in first seen order
+     */
+    synchronized List<Summary> getSummaries()
+    {
+        List<Summary> listSummaries = new ArrayList<Summary>();
+        for (Map.Entry<String, Timing> entry : m_timings.entrySet())
+        {
+            listSummaries.add(new Summary(entry.getKey(),
+                                          entry.getValue()));
+        }
+        return listSummaries;
+    }
+
+    /**
+     * Prints the recorded timings.
+     *
+     * @param title title of the output
+     */
+    void print(String title)
+    {
+        System.out.println("");
+        System.out.println(title + ":");
+
+        for (Summary summary : getSummaries())
+        {
+            System.out.println("- " + summary.getName()
+                               + ": count=" + summary.getCount()
+                               + " total=" + summary.getTotal() + " ms"
+                               + " avg=" + summary.getAverage() + " ms"
+                               + " p50=" + summary.getP50() + " ms"
+                               + " p95=" + summary.getP95() + " ms"
+                               + " p99=" + summary.getP99() + " ms"
+                               + " max=" + summary.getMax() + " ms");
+        }
+    }
+
+    /**
+     * Latency distribution of one operation.
+     */
+    static final class Summary
+    {
+        /** Operation name */
+        private final String m_name;
+        /** Number of executions */
+        private final int m_count;
+        /** Total elapsed time */
+        private final long m_total;
+        /** Median */
+        private final long m_p50;
+        /** 95th percentile */
+        private final long m_p95;
+        /** 99th percentile */
+        private final long m_p99;
+        /** Longest execution */
+        private final long m_max;
+
+        /**
+         * Constructor for Summary.
+         *
+         * @param name   operation name
+         * @param timing recorded executions
+         */
+        private Summary(String name,
+                        Timing timing)
+        {
+            long[] samples = Arrays.copyOf(timing.m_samples,
+                                           timing.m_sampleCount);
+            Arrays.sort(samples);
+
+            m_name = name;
+            m_count = timing.m_count;
+            m_total = timing.m_total;
+            m_p50 = getPercentile(samples, 50);
+            m_p95 = getPercentile(samples, 95);
+            m_p99 = getPercentile(samples, 99);
+            m_max = timing.m_max;
+        }
+
+        /**
+         * Gets a percentile with the nearest rank method.
+         *
+         * @param samples    sorted samples, not empty
+         * @param percentile the percentile
+         * @return the value
+         */
+        private static long getPercentile(long[] samples,
+                                          int    percentile)
+        {
+            int rank = (int) Math.ceil(percentile / 100.0 * samples.length);
+            return samples[Math.max(rank, 1) - 1];
+        }
+
+        /**
+         * Gets the value.
+         *
+         * @return the value
+         */
+        String getName()
+        {
+            return m_name;
+        }
+
+        /**
+         * Gets the value.
+         *
+         * @return the value
+         */
+        int getCount()
+        {
+            return m_count;
+        }
+
+        /**
+         * Gets the value.
+         *
+         * @return the value
+         */
+        long getTotal()
+        {
+            return m_total;
+        }
+
+        /**
+         * Gets the value.
+         *
+         * @return the value
+         */
+        long getAverage()
+        {
+            return m_total / m_count;
+        }
+
+        /**
+         * Gets the value.
+         *
+         * @return the value
+         */
+        long getP50()
+        {
+            return m_p50;
+        }
+
+        /**
+         * Gets the value.
+         *
+         * @return the value
+         */
+        long getP95()
+        {
+            return m_p95;
+        }
+
+        /**
+         * Gets the value.
+         *
+         * @return the value
+         */
+        long getP99()
+        {
+            return m_p99;
+        }
+
+        /**
+         * Gets the value.
+         *
+         * @return the value
+         */
+        long getMax()
+        {
+            return m_max;
+        }
+    }
+
+    /**
+     * Recorded executions of one operation.
+     */
+    private static final class Timing
+    {
+        /** Number of executions */
+        private int m_count = 0;
+        /** Total elapsed time */
+        private long m_total = 0;
+        /** Longest execution */
+        private long m_max = 0;
+        /** Number of sampled executions */
+        private int m_sampleCount = 0;
+        /** Elapsed times of the sampled executions, the first m_sampleCount are in use */
+        private long[] m_samples = new long[16];
+    }
+}